@@ -0,0 +1,53 @@
+package linkedin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// Login throughput with 1M registered users. Hashing uses a single PBKDF2 iteration by default so
+// the email lookup is what gets measured; pass -p hashIterations=10000 for the production cost.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginBenchmark {
+    @Param({"1000000"})
+    public int users;
+
+    @Param({"1"})
+    public int hashIterations;
+
+    private LinkedInService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = LinkedInService.getInstance();
+        service.setPasswordHasher(new PasswordHasher(hashIterations));
+        IntStream.range(0, users).parallel().forEach(i ->
+                service.registerUser(String.valueOf(i), "User " + i, "user" + i + "@pro.com", "pass" + i));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UserL login() {
+        int i = ThreadLocalRandom.current().nextInt(users);
+        return service.login("user" + i + "@pro.com", "pass" + i);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public UserL login4Threads() {
+        int i = ThreadLocalRandom.current().nextInt(users);
+        return service.login("user" + i + "@pro.com", "pass" + i);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UserL unknownEmail() {
+        return service.login("nobody" + ThreadLocalRandom.current().nextInt(users) + "@pro.com", "pass");
+    }
+}
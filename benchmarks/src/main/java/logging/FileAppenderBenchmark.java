@@ -0,0 +1,67 @@
+package logging;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Appender throughput on tmpfs (override with -p dir=...), so the disk does not dominate.
+// Files are recreated every iteration to keep tmpfs usage bounded.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileAppenderBenchmark {
+    @Param({"/dev/shm"})
+    public String dir;
+
+    @Param({"NONE", "PERIODIC"})
+    public String durability;
+
+    private Path workDir;
+    private FileAppender fileAppender;
+    private JournalAppender journalAppender;
+    private final LogMessage message = new LogMessage(LogLevel.INFO, "Order processed successfully for user alice");
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory(Paths.get(dir), "log-bench");
+        fileAppender = new FileAppender(workDir.resolve("app.log").toString(), 64 * 1024, 200,
+                DurabilityPolicy.valueOf(durability));
+        journalAppender = new JournalAppender(workDir.toString(), "journal", 64 * 1024 * 1024);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        fileAppender.close();
+        journalAppender.close();
+        try (Stream<Path> files = Files.walk(workDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void fileAppender() {
+        fileAppender.append(message);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fileAppender4Threads() {
+        fileAppender.append(message);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void journalAppender() {
+        journalAppender.append(message);
+    }
+}
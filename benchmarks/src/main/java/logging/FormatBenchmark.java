@@ -0,0 +1,55 @@
+package logging;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Per-message formatting cost: the String-returning format() against the buffer-encoding layouts
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark {
+    private final LogMessage plain = new LogMessage(LogLevel.INFO, "Order processed successfully for user alice");
+    private final LogMessage parameterized = new LogMessage(LogLevel.INFO, "Order {} processed for {}", 2,
+            42L, "alice", null, null, new Object[] {"region", "eu-west-1"}, NanoClock.epochNanos());
+    private final JsonLayout json = new JsonLayout();
+    private final StringBuilder sb = new StringBuilder(256);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+
+    @Benchmark
+    public String formatToString() {
+        return plain.format();
+    }
+
+    @Benchmark
+    public StringBuilder encodeToStringBuilder() {
+        sb.setLength(0);
+        DefaultLayout.INSTANCE.encode(plain, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeToByteBuffer() {
+        buffer.clear();
+        DefaultLayout.INSTANCE.encode(plain, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public StringBuilder encodeParameterized() {
+        sb.setLength(0);
+        DefaultLayout.INSTANCE.encode(parameterized, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeJson() {
+        buffer.clear();
+        json.encode(parameterized, buffer);
+        return buffer;
+    }
+}
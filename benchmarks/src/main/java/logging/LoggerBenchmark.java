@@ -0,0 +1,104 @@
+package logging;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Cost of Logger.log under 1/4/16 threads, synchronously and through the async ring buffer,
+// plus the cost of calls that are filtered out by level.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerBenchmark {
+
+    // Formats into memory instead of doing I/O, so the numbers show Logger overhead
+    static final class EncodingAppender implements LogAppender {
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        @Override
+        public synchronized void append(LogMessage message) {
+            if (buffer.remaining() < DefaultLayout.INSTANCE.maxEncodedLength(message)) {
+                buffer.clear();
+            }
+            DefaultLayout.INSTANCE.encode(message, buffer);
+        }
+    }
+
+    @Param({"SYNC", "ASYNC"})
+    public String mode;
+
+    private Logger logger;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        logger = Logger.getInstance(new LogConfig(LogLevel.INFO, new EncodingAppender()));
+        logger.setConfig(new LogConfig(LogLevel.INFO, new EncodingAppender()));
+        if (mode.equals("ASYNC")) {
+            logger.startAsync(1 << 16, OverflowPolicy.BLOCK, LogLevel.WARNING);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        logger.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void log1Thread() {
+        logger.log(LogLevel.INFO, "Order processed successfully");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void log4Threads() {
+        logger.log(LogLevel.INFO, "Order processed successfully");
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void log16Threads() {
+        logger.log(LogLevel.INFO, "Order processed successfully");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void parameterized4Threads() {
+        logger.info("Order {} processed for {}", 42L, "alice");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void disabledLevel() {
+        logger.debug("Filtered out by level");
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void disabledLevel16Threads() {
+        logger.debug("Filtered out by level");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void disabledSupplier(Blackhole bh) {
+        logger.debug(() -> "Filtered out: " + bh.hashCode());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void disabledParameterized() {
+        logger.debug("Filtered out: {} {}", 1L, "two");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+}
@@ -0,0 +1,83 @@
+package stackoverflow;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Vote throughput on random questions under 1/4/16 threads, and votes running next to a thread
+// doing ranked full-text searches. Compare the per-thread-count scores to see how writes scale with cores.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StackOverflowBenchmark {
+    @Param({"10000"})
+    public int questions;
+
+    private StackOverflow so;
+    private User[] users;
+    private Question[] posted;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        so = new StackOverflow();
+        users = new User[1000];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = so.createUser("User " + i, "user" + i + "@example.com");
+        }
+        List<String> tags = Arrays.asList("java", "concurrency");
+        posted = new Question[questions];
+        for (int i = 0; i < questions; i++) {
+            posted[i] = so.postQuestion("Question " + i + " about Java", "Body of question " + i + " with some text",
+                    users[i % users.length], tags);
+        }
+        so.refreshSearch();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        so.shutdown();
+    }
+
+    private void vote() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        so.voteQuestion(users[random.nextInt(users.length)], posted[random.nextInt(posted.length)], random.nextBoolean());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void vote1Thread() {
+        vote();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void vote4Threads() {
+        vote();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void vote16Threads() {
+        vote();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public void mixedVote() {
+        vote();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int mixedSearch() {
+        return so.searchQuestions("question 42").size();
+    }
+}
@@ -0,0 +1,132 @@
+package logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs DatabaseAppender against an in-memory H2 database
+class DatabaseAppenderTest {
+    @TempDir
+    Path dir;
+
+    private static String url(String database) {
+        return "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1";
+    }
+
+    private static List<String> messages(String url) throws SQLException {
+        List<String> result = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT message FROM logs ORDER BY log_time, message")) {
+            while (rs.next()) {
+                result.add(rs.getString(1));
+            }
+        }
+        return result;
+    }
+
+    private List<String> spilled(Path spill) throws Exception {
+        return Files.exists(spill) ? Files.readAllLines(spill) : Collections.emptyList();
+    }
+
+    @Test
+    void insertsEveryMessageInBatches() throws Exception {
+        String url = url("batching");
+        Path spill = dir.resolve("spill.log");
+        DatabaseAppender appender = new DatabaseAppender(url, "logs", 10, 20, spill.toString());
+        for (int i = 0; i < 25; i++) {
+            appender.append(new LogMessage(LogLevel.INFO, String.format("message %02d", i)));
+        }
+        appender.flush();
+        appender.close();
+
+        List<String> rows = messages(url);
+        assertEquals(25, rows.size());
+        assertEquals("message 00", rows.get(0));
+        assertEquals("message 24", rows.get(24));
+        assertTrue(spilled(spill).isEmpty());
+    }
+
+    @Test
+    void truncatesOversizedMessageInsteadOfFailingTheBatch() throws Exception {
+        String url = url("oversized");
+        Path spill = dir.resolve("spill.log");
+        DatabaseAppender appender = new DatabaseAppender(url, "logs", 10, 20, spill.toString());
+        for (int i = 0; i < 9; i++) {
+            appender.append(new LogMessage(LogLevel.INFO, "short " + i));
+        }
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            longLine.append('x');
+        }
+        appender.append(new LogMessage(LogLevel.ERROR, longLine.toString()));
+        appender.flush();
+        appender.close();
+
+        List<String> rows = messages(url);
+        assertEquals(10, rows.size());
+        assertTrue(rows.stream().anyMatch(row -> row.length() == DatabaseAppender.MESSAGE_COLUMN_CHARS));
+        assertTrue(spilled(spill).isEmpty());
+    }
+
+    @Test
+    void logsMutableArgumentsAsTheyWereAtTheCall() throws Exception {
+        String url = url("mutable");
+        Path spill = dir.resolve("spill.log");
+        DatabaseAppender appender = new DatabaseAppender(url, "logs", 10, 20, spill.toString());
+        StringBuilder state = new StringBuilder("before");
+        appender.append(new LogMessage(LogLevel.INFO, "state {}", 1, state, null, null, null, new Object[0],
+                System.currentTimeMillis() * 1_000_000));
+        state.setLength(0);
+        state.append("after");
+        appender.flush();
+        appender.close();
+
+        assertEquals(Collections.singletonList("state before"), messages(url));
+    }
+
+    @Test
+    void spillsToFileWhenTheDatabaseStaysDown() throws Exception {
+        // IFEXISTS refuses to create the database, so every attempt fails
+        String url = "jdbc:h2:mem:missing;IFEXISTS=TRUE";
+        Path spill = dir.resolve("spill.log");
+        DatabaseAppender appender = new DatabaseAppender(url, "logs", 10, 20, spill.toString());
+        appender.append(new LogMessage(LogLevel.WARNING, "first"));
+        appender.append(new LogMessage(LogLevel.ERROR, "second"));
+        appender.flush();
+        appender.close();
+
+        List<String> lines = spilled(spill);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).endsWith("[WARNING] first"));
+        assertTrue(lines.get(1).endsWith("[ERROR] second"));
+    }
+
+    @Test
+    void retriesUntilTheDatabaseComesBack() throws Exception {
+        String url = "jdbc:h2:mem:recovering;IFEXISTS=TRUE;DB_CLOSE_DELAY=-1";
+        Path spill = dir.resolve("spill.log");
+        DatabaseAppender appender = new DatabaseAppender(url, "logs", 10, 20, spill.toString());
+        appender.append(new LogMessage(LogLevel.WARNING, "delayed"));
+        Thread.sleep(60); // the first attempt fails and the writer backs off
+        try (Connection create = DriverManager.getConnection(url("recovering"))) {
+            appender.flush();
+            appender.close();
+            assertEquals(Collections.singletonList("delayed"), messages(url("recovering")));
+        }
+        assertTrue(spilled(spill).isEmpty());
+    }
+}
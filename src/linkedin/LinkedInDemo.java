@@ -0,0 +1,3304 @@
+package linkedin;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+class Experience {
+    String title, companyName, duration;
+
+    Experience(String title, String companyName, String duration) {
+        this.title = title;
+        this.companyName = companyName;
+        this.duration = duration;
+    }
+}
+
+class Education {
+    String degree, school, year;
+
+    Education( String school, String degree, String year) {
+        this.degree = degree;
+        this.school = school;
+        this.year = year;
+    }
+}
+
+class Skill {
+    String name;
+
+    Skill(String name) {
+        this.name = name;
+    }
+}
+
+class Profile {
+    String picture, headline, summary;
+    List<Experience> experiences = new ArrayList<>();
+    List<Education> educations = new ArrayList<>();
+    List<Skill> skills = new ArrayList<>();
+}
+
+class Message {
+    long id;
+    String content;
+    UserL sender, receiver;
+    Date timestamp = new Date();
+
+    Message(long id, String content, UserL sender, UserL receiver) {
+        this.id = id;
+        this.content = content;
+        this.sender = sender;
+        this.receiver = receiver;
+    }
+}
+
+class JobPosting {
+    long id; // assigned by LinkedInService.postJob
+    String title, company, location, description;
+    Date postedDate = new Date();
+    volatile boolean expired; // set once dropped from the job store
+
+    public  JobPosting(String title, String company, String location, String description) {
+        this.title = title;
+        this.company = company;
+        this.location = location;
+        this.description = description;
+    }
+}
+
+class UserL {
+    String id, name, email;
+    byte[] passwordSalt, passwordHash;
+    Profile profile = new Profile();
+
+    UserL(String id, String name, String email, byte[] passwordSalt, byte[] passwordHash) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+        this.passwordSalt = passwordSalt;
+        this.passwordHash = passwordHash;
+    }
+
+    public void addExperience(Experience experience) {
+        profile.experiences.add(experience);
+    }
+
+    public void addEducation(Education education) {
+        profile.educations.add(education);
+    }
+
+    public void addSkill(Skill skill) {
+        profile.skills.add(skill);
+    }
+
+//    public void postJob(JobPosting jobPosting) {
+//        jobPostings.add(jobPosting);
+//    }
+}
+
+enum NotificationType {
+    MESSAGE, CONNECTION_REQUEST, JOB_POSTING
+}
+
+class Notification {
+    long id;
+    String content;
+    UserL sender;
+    NotificationType type;
+    Date timestamp = new Date();
+
+    public Notification(long id, UserL sender, NotificationType type, String content) {
+        this.id = id;
+        this.content = content;
+        this.sender = sender;
+        this.type = type;
+    }
+}
+
+// Source of unique long ids for messages, notifications and job postings
+interface IdGenerator {
+    long nextId();
+}
+
+// Snowflake-style ids: 41 bits of milliseconds since EPOCH_MILLIS, 10 bits of node id and a
+// 12-bit sequence. Ids from one generator strictly increase: when the sequence for the current
+// millisecond runs out, or the clock steps back, ids borrow from the next millisecond instead
+// of blocking.
+class SnowflakeIdGenerator implements IdGenerator {
+    static final long EPOCH_MILLIS = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+    static final int NODE_BITS = 10, SEQUENCE_BITS = 12;
+    static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeBits;
+    // Last issued (millis << SEQUENCE_BITS | sequence), without the node
+    private final AtomicLong last = new AtomicLong();
+
+    SnowflakeIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE + ": " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    @Override
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long previous, next;
+        do {
+            previous = last.get();
+            next = Math.max(now, previous + 1);
+        } while (!last.compareAndSet(previous, next));
+        return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+    }
+
+    static long timestampMillis(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    static int nodeId(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE);
+    }
+}
+
+// Salted PBKDF2 password hashes; verification compares in constant time
+class PasswordHasher {
+    static final int DEFAULT_ITERATIONS = 10_000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    PasswordHasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return salt;
+    }
+
+    byte[] hash(String password, byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    boolean verify(String password, byte[] salt, byte[] expectedHash) {
+        return MessageDigest.isEqual(hash(password, salt), expectedHash);
+    }
+}
+
+// In-memory inverted index: whole tokens in a sorted map (for prefix lookups) and token trigrams
+// for substring matches. A match scores 3 for an exact token, 2 for a token prefix and 1 for a
+// substring, times the weight of the field it hit; every query term has to match somewhere.
+class SearchIndex<T> {
+    private static final int GRAM = 3;
+    private static final int EXACT = 3, PREFIX = 2, SUBSTRING = 1;
+
+    private static final class Doc<T> {
+        final String id;
+        final T item;
+        final String[][] fieldTokens;
+
+        Doc(String id, T item, String[][] fieldTokens) {
+            this.id = id;
+            this.item = item;
+            this.fieldTokens = fieldTokens;
+        }
+    }
+
+    private static final class Hit<T> {
+        final Doc<T> doc;
+        final int score;
+
+        Hit(Doc<T> doc, int score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+
+    private final int[] fieldWeights;
+    private final ConcurrentHashMap<String, Doc<T>> docs = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Set<String>> tokenPostings = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Set<String>> gramPostings = new ConcurrentHashMap<>();
+
+    SearchIndex(int... fieldWeights) {
+        this.fieldWeights = fieldWeights;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Adds or replaces the document; fieldValues line up with the weights given to the constructor
+    void index(String id, T item, String... fieldValues) {
+        String[][] fieldTokens = new String[fieldWeights.length][];
+        for (int f = 0; f < fieldWeights.length; f++) {
+            fieldTokens[f] = tokenize(f < fieldValues.length ? fieldValues[f] : null).toArray(new String[0]);
+        }
+        Doc<T> doc = new Doc<>(id, item, fieldTokens);
+        docs.compute(id, (key, previous) -> {
+            if (previous != null) {
+                unlink(previous);
+            }
+            link(doc);
+            return doc;
+        });
+    }
+
+    void remove(String id) {
+        docs.computeIfPresent(id, (key, previous) -> {
+            unlink(previous);
+            return null;
+        });
+    }
+
+    private void link(Doc<T> doc) {
+        for (String[] tokens : doc.fieldTokens) {
+            for (String token : tokens) {
+                tokenPostings.computeIfAbsent(token, k -> ConcurrentHashMap.newKeySet()).add(doc.id);
+                for (int i = 0; i + GRAM <= token.length(); i++) {
+                    gramPostings.computeIfAbsent(token.substring(i, i + GRAM), k -> ConcurrentHashMap.newKeySet()).add(doc.id);
+                }
+            }
+        }
+    }
+
+    // Empty posting sets are left in place; removing them would race with concurrent link()s
+    private void unlink(Doc<T> doc) {
+        for (String[] tokens : doc.fieldTokens) {
+            for (String token : tokens) {
+                Set<String> ids = tokenPostings.get(token);
+                if (ids != null) {
+                    ids.remove(doc.id);
+                }
+                for (int i = 0; i + GRAM <= token.length(); i++) {
+                    Set<String> gramIds = gramPostings.get(token.substring(i, i + GRAM));
+                    if (gramIds != null) {
+                        gramIds.remove(doc.id);
+                    }
+                }
+            }
+        }
+    }
+
+    // Ids of documents that may match the term; scoring does the exact check
+    private Set<String> candidates(String term) {
+        if (term.length() < GRAM) {
+            // Too short for trigrams: token prefix matches only
+            Set<String> result = new HashSet<>();
+            for (Set<String> ids : tokenPostings.subMap(term, term + Character.MAX_VALUE).values()) {
+                result.addAll(ids);
+            }
+            return result;
+        }
+        Set<String> result = null;
+        for (int i = 0; i + GRAM <= term.length(); i++) {
+            Set<String> ids = gramPostings.get(term.substring(i, i + GRAM));
+            if (ids == null) {
+                return Collections.emptySet();
+            }
+            if (result == null) {
+                result = new HashSet<>(ids);
+            } else {
+                result.retainAll(ids);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private int score(Doc<T> doc, List<String> terms) {
+        int total = 0;
+        for (String term : terms) {
+            int best = 0;
+            for (int f = 0; f < doc.fieldTokens.length; f++) {
+                for (String token : doc.fieldTokens[f]) {
+                    int kind = token.equals(term) ? EXACT
+                            : token.startsWith(term) ? PREFIX
+                            : term.length() >= GRAM && token.contains(term) ? SUBSTRING : 0;
+                    best = Math.max(best, kind * fieldWeights[f]);
+                }
+            }
+            if (best == 0) {
+                return 0;
+            }
+            total += best;
+        }
+        return total;
+    }
+
+    // Best matches first; only offset + limit hits are ever held in memory
+    List<T> search(String query, int offset, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        Set<String> driving = null;
+        for (String term : terms) {
+            Set<String> ids = candidates(term);
+            if (driving == null || ids.size() < driving.size()) {
+                driving = ids;
+            }
+        }
+        offset = Math.max(0, offset);
+        int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE - 1);
+        Comparator<Hit<T>> worstFirst = Comparator.<Hit<T>>comparingInt(h -> h.score)
+                .thenComparing(h -> h.doc.id, Comparator.reverseOrder());
+        PriorityQueue<Hit<T>> top = new PriorityQueue<>(worstFirst); // grows with the hits, not with k
+        for (String id : driving) {
+            Doc<T> doc = docs.get(id);
+            if (doc == null) {
+                continue;
+            }
+            int score = score(doc, terms);
+            if (score > 0) {
+                top.offer(new Hit<>(doc, score));
+                if (top.size() > k) {
+                    top.poll();
+                }
+            }
+        }
+        List<Hit<T>> ranked = new ArrayList<>(top);
+        ranked.sort(worstFirst.reversed());
+        List<T> page = new ArrayList<>(Math.max(0, ranked.size() - offset));
+        for (int i = offset; i < ranked.size(); i++) {
+            page.add(ranked.get(i).doc.item);
+        }
+        return page;
+    }
+}
+
+// Append-only log of job notifications shared by every user (fan-out on read). Entries live in
+// fixed-size chunks so appends never copy existing entries; readers see everything below size().
+// Only the newest `window` entries are kept: chunks sit in a small ring and a new chunk reuses
+// the slot of the oldest one, so older positions read as null. Ids are drawn under the append
+// lock, so they increase with position and can be binary-searched.
+class JobTimeline {
+    private static final int CHUNK_SIZE = 1024;
+
+    private final Chunk[] ring; // chunk n lives in slot n % ring.length until it is reused
+    private volatile long size = 0;
+
+    // window must cover the largest jobCapacity of any inbox reading this timeline
+    JobTimeline(int window) {
+        this.ring = new Chunk[(window + CHUNK_SIZE - 1) / CHUNK_SIZE + 1];
+    }
+
+    public synchronized Notification append(IdGenerator ids, String content) {
+        Notification notification = new Notification(ids.nextId(), null, NotificationType.JOB_POSTING, content);
+        long position = size;
+        long chunk = position / CHUNK_SIZE;
+        int slot = (int) (chunk % ring.length);
+        if (position % CHUNK_SIZE == 0) {
+            ring[slot] = new Chunk(chunk); // releases the oldest chunk
+        }
+        ring[slot].entries[(int) (position % CHUNK_SIZE)] = notification;
+        size = position + 1; // volatile write publishes the entry
+        return notification;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // Only valid for position < size(); null once the position has been released
+    public Notification get(long position) {
+        long chunk = position / CHUNK_SIZE;
+        Chunk c = ring[(int) (chunk % ring.length)];
+        return c != null && c.index == chunk ? c.entries[(int) (position % CHUNK_SIZE)] : null;
+    }
+
+    // First position in [from, to) whose id is >= id, or to. Released entries count as older.
+    public long lowerBound(long id, long from, long to) {
+        while (from < to) {
+            long mid = (from + to) >>> 1;
+            Notification entry = get(mid);
+            if (entry == null || entry.id < id) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    private static final class Chunk {
+        final long index;
+        final Notification[] entries = new Notification[CHUNK_SIZE];
+
+        Chunk(long index) {
+            this.index = index;
+        }
+    }
+}
+
+// One page of a user's notifications, newest first. Pass nextCursor back to get the following page.
+class NotificationPage {
+    static final long FIRST_PAGE = Long.MAX_VALUE;
+
+    final List<Notification> notifications;
+    final long nextCursor; // -1 when there is nothing older
+    final int unreadCount;
+
+    NotificationPage(List<Notification> notifications, long nextCursor, int unreadCount) {
+        this.notifications = notifications;
+        this.nextCursor = nextCursor;
+        this.unreadCount = unreadCount;
+    }
+
+    public boolean hasMore() {
+        return nextCursor >= 0;
+    }
+}
+
+// A user's notifications. Personal ones (messages, connection requests) live in a bounded ring
+// with its own monitor, so senders to different users never contend; when full, the oldest is
+// evicted. Job postings stay in the shared timeline and are merged in by id at read time, capped
+// to the newest jobCapacity entries, so a burst of jobs never evicts personal notifications.
+// Notification ids are time-ordered and double as the paging cursor.
+class NotificationInbox {
+    static final int DEFAULT_CAPACITY = 256;
+    private static final int INITIAL_SLOTS = 8;
+
+    private final int capacity;
+    // Grown on demand up to capacity, so idle users cost little; kept sorted by id
+    private Notification[] items;
+    private boolean[] read;
+    private long first = 0; // sequence of the oldest retained entry
+    private long next = 0;  // sequence the next entry gets
+    private int unread = 0; // personal entries only
+
+    private final int jobCapacity;
+    private final long jobStart;       // timeline position at registration; older jobs never show
+    private long jobsReadThrough;      // every job below this position is read
+    private final TreeSet<Long> jobsRead = new TreeSet<>(); // positions at or above it marked one by one
+
+    NotificationInbox(int capacity, int jobCapacity, long jobStart) {
+        this.capacity = capacity;
+        this.items = new Notification[Math.min(capacity, INITIAL_SLOTS)];
+        this.read = new boolean[items.length];
+        this.jobCapacity = jobCapacity;
+        this.jobStart = jobStart;
+        this.jobsReadThrough = jobStart;
+    }
+
+    public synchronized void add(Notification notification) {
+        if (next - first == items.length && items.length < capacity) {
+            grow();
+        }
+        if (next - first == items.length) {
+            if (!read[slot(first)]) {
+                unread--;
+            }
+            items[slot(first)] = null;
+            first++;
+        }
+        long seq = next++;
+        items[slot(seq)] = notification;
+        read[slot(seq)] = false;
+        unread++;
+        // Ids are drawn before the lock, so a racing sender can land slightly out of order
+        for (; seq > first && items[slot(seq - 1)].id > notification.id; seq--) {
+            swap(slot(seq - 1), slot(seq));
+        }
+    }
+
+    public synchronized NotificationPage page(long cursor, int limit, JobTimeline jobs) {
+        long jobEnd = jobs.size();
+        long jobFrom = jobWindowStart(jobEnd);
+        long job = jobs.lowerBound(cursor, jobFrom, jobEnd) - 1;
+        long seq = next - 1;
+        while (seq >= first && items[slot(seq)].id >= cursor) {
+            seq--;
+        }
+        List<Notification> page = new ArrayList<>(Math.max(0, Math.min(limit, (int) (next - first) + jobCapacity)));
+        while (page.size() < limit && (seq >= first || job >= jobFrom)) {
+            Notification shared = job >= jobFrom ? jobs.get(job) : null;
+            if (job >= jobFrom && shared == null) {
+                job = jobFrom - 1; // released by a burst of appends while paging
+                continue;
+            }
+            Notification personal = seq >= first ? items[slot(seq)] : null;
+            if (shared == null || (personal != null && personal.id > shared.id)) {
+                page.add(personal);
+                seq--;
+            } else {
+                page.add(shared);
+                job--;
+            }
+        }
+        boolean more = seq >= first || job >= jobFrom;
+        long nextCursor = more && !page.isEmpty() ? page.get(page.size() - 1).id : -1;
+        return new NotificationPage(page, nextCursor, unread + unreadJobs(jobEnd));
+    }
+
+    public synchronized int unreadCount(JobTimeline jobs) {
+        return unread + unreadJobs(jobs.size());
+    }
+
+    // Marks every visible entry whose id is in ids; returns how many changed to read
+    public synchronized int markAsRead(JobTimeline jobs, long... ids) {
+        long[] wanted = ids.clone();
+        Arrays.sort(wanted);
+        int marked = 0;
+        for (long seq = first; seq < next; seq++) {
+            int slot = slot(seq);
+            if (!read[slot] && Arrays.binarySearch(wanted, items[slot].id) >= 0) {
+                read[slot] = true;
+                marked++;
+            }
+        }
+        unread -= marked;
+        long jobEnd = jobs.size();
+        long jobFrom = Math.max(jobWindowStart(jobEnd), jobsReadThrough);
+        for (long id : wanted) {
+            long position = jobs.lowerBound(id, jobFrom, jobEnd);
+            Notification job = position < jobEnd ? jobs.get(position) : null;
+            if (job != null && job.id == id && jobsRead.add(position)) {
+                marked++;
+            }
+        }
+        return marked;
+    }
+
+    public synchronized void markAllAsRead(JobTimeline jobs) {
+        for (long seq = first; seq < next; seq++) {
+            read[slot(seq)] = true;
+        }
+        unread = 0;
+        jobsReadThrough = Math.max(jobsReadThrough, jobs.size());
+        jobsRead.clear();
+    }
+
+    private long jobWindowStart(long jobEnd) {
+        return Math.max(jobStart, jobEnd - jobCapacity);
+    }
+
+    private int unreadJobs(long jobEnd) {
+        long from = Math.max(jobWindowStart(jobEnd), jobsReadThrough);
+        jobsRead.headSet(from).clear(); // dropped out of the window or covered by the watermark
+        return (int) (Math.max(0, jobEnd - from) - jobsRead.size());
+    }
+
+    private void swap(int a, int b) {
+        Notification item = items[a];
+        items[a] = items[b];
+        items[b] = item;
+        boolean flag = read[a];
+        read[a] = read[b];
+        read[b] = flag;
+    }
+
+    private void grow() {
+        Notification[] grownItems = new Notification[Math.min(capacity, items.length * 2)];
+        boolean[] grownRead = new boolean[grownItems.length];
+        for (long seq = first; seq < next; seq++) {
+            grownItems[(int) (seq % grownItems.length)] = items[slot(seq)];
+            grownRead[(int) (seq % grownItems.length)] = read[slot(seq)];
+        }
+        items = grownItems;
+        read = grownRead;
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % items.length);
+    }
+}
+
+// Open-addressed set of non-negative ints (stored +1 so 0 marks an empty slot). Writers
+// synchronize on the set; readers go lock-free through the volatile table and size.
+class IntSet {
+    private volatile int[] table;
+    private volatile int size = 0;
+
+    IntSet(int expected) {
+        table = new int[Math.max(4, Integer.highestOneBit(Math.max(1, expected) * 2 - 1) << 1)];
+    }
+
+    public boolean contains(int value) {
+        int[] t = table;
+        int mask = t.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            int slot = t[i];
+            if (slot == 0) {
+                return false;
+            }
+            if (slot == value + 1) {
+                return true;
+            }
+        }
+    }
+
+    public synchronized boolean add(int value) {
+        if ((size + 1) * 2 > table.length) {
+            int[] grown = new int[table.length * 2];
+            for (int slot : table) {
+                if (slot != 0) {
+                    insert(grown, slot);
+                }
+            }
+            table = grown;
+        }
+        if (!insert(table, value + 1)) {
+            return false;
+        }
+        size = size + 1; // volatile write publishes the slot
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The live table, for scans that bound their own work: non-zero slots hold value + 1.
+    // Read-only for callers; growth swaps in a new table and leaves this one untouched.
+    int[] slots() {
+        return table;
+    }
+
+    public int[] toArray() {
+        int n = size;
+        int[] t = table;
+        int[] values = new int[n];
+        int count = 0;
+        for (int slot : t) {
+            if (slot != 0 && count < n) {
+                values[count++] = slot - 1;
+            }
+        }
+        return count == n ? values : Arrays.copyOf(values, count);
+    }
+
+    private static boolean insert(int[] t, int stored) {
+        int mask = t.length - 1;
+        for (int i = mix(stored - 1) & mask; ; i = (i + 1) & mask) {
+            if (t[i] == stored) {
+                return false;
+            }
+            if (t[i] == 0) {
+                t[i] = stored;
+                return true;
+            }
+        }
+    }
+
+    static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+// Open-addressed int -> int map for per-query scratch state (BFS depths, candidate counts)
+class IntIntMap {
+    private int[] keys;   // key + 1, 0 = empty
+    private int[] values;
+    private int size = 0;
+
+    IntIntMap(int expected) {
+        int capacity = Math.max(4, Integer.highestOneBit(Math.max(1, expected) * 2 - 1) << 1);
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+
+    public int get(int key, int missing) {
+        int i = indexOf(key);
+        return i >= 0 ? values[i] : missing;
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    public void put(int key, int value) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            values[i] = value;
+            return;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            int[] oldKeys = keys, oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != 0) {
+                    int slot = freeSlot(oldKeys[j] - 1);
+                    keys[slot] = oldKeys[j];
+                    values[slot] = oldValues[j];
+                }
+            }
+        }
+        int slot = freeSlot(key);
+        keys[slot] = key + 1;
+        values[slot] = value;
+        size++;
+    }
+
+    public int increment(int key) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            return ++values[i];
+        }
+        put(key, 1);
+        return 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Calls action for each entry; iteration order is unspecified
+    public void forEach(IntIntConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                action.accept(keys[i] - 1, values[i]);
+            }
+        }
+    }
+
+    interface IntIntConsumer {
+        void accept(int key, int value);
+    }
+
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        for (int i = IntSet.mix(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key + 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int freeSlot(int key) {
+        int mask = keys.length - 1;
+        int i = IntSet.mix(key) & mask;
+        while (keys[i] != 0 && keys[i] != key + 1) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+}
+
+// Undirected connection graph over dense int ids. Each node's neighbours are an IntSet; an edge
+// is inserted under the monitors of both endpoint sets (taken in id order), so concurrent
+// inserts only contend when they touch the same users.
+class ConnectionGraph {
+    static final int MAX_DEPTH = 3;
+    // Upper bound on adjacency entries a single "people you may know" or distance query looks at
+    static final int SCAN_BUDGET = 50_000;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // Elements are written before the array is (re)published, so a reader that reads the field
+    // after learning a node id sees that node's entries
+    private volatile IntSet[] adjacency = new IntSet[1024];
+    private volatile String[] keys = new String[1024];
+    private int nodeCount = 0; // guarded by this
+
+    public int nodeId(String key) {
+        Integer id = ids.get(key);
+        return id != null ? id : ids.computeIfAbsent(key, this::newNode);
+    }
+
+    // Like nodeId, but -1 instead of creating a node for an unknown key
+    public int findNodeId(String key) {
+        Integer id = ids.get(key);
+        return id != null ? id : -1;
+    }
+
+    private synchronized int newNode(String key) {
+        int id = nodeCount;
+        String[] names = keys;
+        IntSet[] sets = adjacency;
+        if (id == sets.length) {
+            names = Arrays.copyOf(names, id * 2);
+            sets = Arrays.copyOf(sets, id * 2);
+        }
+        names[id] = key;
+        sets[id] = new IntSet(4);
+        keys = names; // volatile writes after the element writes publish them
+        adjacency = sets;
+        nodeCount = id + 1;
+        return id;
+    }
+
+    public String key(int id) {
+        return keys[id];
+    }
+
+    public synchronized int size() {
+        return nodeCount;
+    }
+
+    public int[] neighbourIds(int id) {
+        return neighbours(id).toArray();
+    }
+
+    // Returns false if the two were already connected
+    public boolean addEdge(String a, String b) {
+        return addEdge(nodeId(a), nodeId(b));
+    }
+
+    public boolean addEdge(int a, int b) {
+        if (a == b) {
+            return false;
+        }
+        IntSet first = neighbours(Math.min(a, b)), second = neighbours(Math.max(a, b));
+        synchronized (first) {
+            synchronized (second) {
+                if (!first.add(Math.max(a, b))) {
+                    return false;
+                }
+                second.add(Math.min(a, b));
+                return true;
+            }
+        }
+    }
+
+    public boolean areConnected(String a, String b) {
+        Integer idA = ids.get(a), idB = ids.get(b);
+        return idA != null && idB != null && neighbours(idA).contains(idB);
+    }
+
+    public int degree(String key) {
+        Integer id = ids.get(key);
+        return id == null ? 0 : neighbours(id).size();
+    }
+
+    public List<String> connections(String key) {
+        Integer id = ids.get(key);
+        List<String> result = new ArrayList<>();
+        if (id != null) {
+            for (int neighbour : neighbours(id).toArray()) {
+                result.add(keys[neighbour]);
+            }
+        }
+        return result;
+    }
+
+    public int mutualCount(String a, String b) {
+        Integer idA = ids.get(a), idB = ids.get(b);
+        if (idA == null || idB == null) {
+            return 0;
+        }
+        IntSet setA = neighbours(idA), setB = neighbours(idB);
+        IntSet smaller = setA.size() <= setB.size() ? setA : setB;
+        IntSet larger = smaller == setA ? setB : setA;
+        int count = 0;
+        for (int neighbour : smaller.toArray()) {
+            if (larger.contains(neighbour)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Hops between a and b, or -1 when further apart than MAX_DEPTH. Searches from both ends,
+    // always expanding the smaller frontier, and walks the adjacency tables in place. Gives up
+    // with -1 once SCAN_BUDGET slots have been read, so high-degree nodes cannot make it unbounded.
+    public int distance(String a, String b) {
+        Integer idA = ids.get(a), idB = ids.get(b);
+        if (idA == null || idB == null) {
+            return -1;
+        }
+        if (idA.equals(idB)) {
+            return 0;
+        }
+        IntIntMap depthA = new IntIntMap(64), depthB = new IntIntMap(64);
+        depthA.put(idA, 0);
+        depthB.put(idB, 0);
+        int[] frontierA = {idA}, frontierB = {idB};
+        int levelA = 0, levelB = 0;
+        int budget = SCAN_BUDGET;
+        while (levelA + levelB < MAX_DEPTH && frontierA.length > 0 && frontierB.length > 0) {
+            boolean fromA = frontierA.length <= frontierB.length;
+            IntIntMap seen = fromA ? depthA : depthB, other = fromA ? depthB : depthA;
+            int level = (fromA ? levelA : levelB) + 1;
+            int best = Integer.MAX_VALUE;
+            int[] next = new int[16];
+            int nextSize = 0;
+            for (int node : fromA ? frontierA : frontierB) {
+                for (int slot : neighbours(node).slots()) {
+                    if (--budget < 0) {
+                        return -1;
+                    }
+                    if (slot == 0) {
+                        continue;
+                    }
+                    int neighbour = slot - 1;
+                    int otherDepth = other.get(neighbour, -1);
+                    if (otherDepth >= 0) {
+                        best = Math.min(best, level + otherDepth);
+                    } else if (!seen.containsKey(neighbour)) {
+                        seen.put(neighbour, level);
+                        if (nextSize == next.length) {
+                            next = Arrays.copyOf(next, nextSize * 2);
+                        }
+                        next[nextSize++] = neighbour;
+                    }
+                }
+            }
+            if (best != Integer.MAX_VALUE) {
+                return best <= MAX_DEPTH ? best : -1;
+            }
+            if (fromA) {
+                frontierA = Arrays.copyOf(next, nextSize);
+                levelA = level;
+            } else {
+                frontierB = Arrays.copyOf(next, nextSize);
+                levelB = level;
+            }
+        }
+        return -1;
+    }
+
+    // Second-degree connections ranked by mutual connections. Walks the adjacency tables in place
+    // and stops once SCAN_BUDGET slots have been read, so a high-degree friend costs
+    // no more than the budget.
+    public List<String> suggestions(String key, int limit) {
+        Integer id = ids.get(key);
+        if (id == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        IntSet direct = neighbours(id);
+        IntIntMap mutual = new IntIntMap(256);
+        int budget = SCAN_BUDGET;
+        scan:
+        for (int friendSlot : direct.slots()) {
+            if (--budget < 0) {
+                break;
+            }
+            if (friendSlot == 0) {
+                continue;
+            }
+            for (int slot : neighbours(friendSlot - 1).slots()) {
+                if (--budget < 0) {
+                    break scan;
+                }
+                int candidate = slot - 1;
+                if (slot != 0 && candidate != id && !direct.contains(candidate)) {
+                    mutual.increment(candidate);
+                }
+            }
+        }
+        // Min-heap of the best `limit` candidates: most mutual connections, then lowest id
+        PriorityQueue<long[]> top = new PriorityQueue<>(
+                (x, y) -> x[1] != y[1] ? Long.compare(x[1], y[1]) : Long.compare(y[0], x[0]));
+        mutual.forEach((candidate, count) -> {
+            top.offer(new long[] {candidate, count});
+            if (top.size() > limit) {
+                top.poll();
+            }
+        });
+        String[] ranked = new String[top.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = keys[(int) top.poll()[0]];
+        }
+        return new ArrayList<>(Arrays.asList(ranked));
+    }
+
+    private IntSet neighbours(int id) {
+        return adjacency[id];
+    }
+}
+
+enum RequestStatus {
+    PENDING, ACCEPTED, REJECTED, EXPIRED, NOT_FOUND
+}
+
+class ConnectionRequest {
+    final UserL sender, receiver;
+    final long sentAtMillis;
+
+    ConnectionRequest(UserL sender, UserL receiver, long sentAtMillis) {
+        this.sender = sender;
+        this.receiver = receiver;
+        this.sentAtMillis = sentAtMillis;
+    }
+}
+
+// Pending connection requests keyed by the unordered pair of graph ids packed into one long, so
+// two users have at most one request between them and sending one back accepts it. Accepting
+// removes the request first, so of several concurrent accepts exactly one inserts the edge; the
+// rest see the existing connection and report ACCEPTED as well.
+class ConnectionRequestStore {
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private final ConnectionGraph graph;
+    private final long ttlMillis;
+    private final BiConsumer<UserL, UserL> onConnect; // called before each new edge; throwing keeps the request pending
+    private final ConcurrentHashMap<Long, ConnectionRequest> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Set<ConnectionRequest>> incoming = new ConcurrentHashMap<>();
+
+    ConnectionRequestStore(ConnectionGraph graph, long ttlMillis, BiConsumer<UserL, UserL> onConnect) {
+        this.graph = graph;
+        this.ttlMillis = ttlMillis;
+        this.onConnect = onConnect;
+    }
+
+    private static long key(int a, int b) {
+        int low = Math.min(a, b), high = Math.max(a, b);
+        return ((long) low << 32) | (high & 0xFFFFFFFFL);
+    }
+
+    // Returns the new request, or null if it was a duplicate, a self-request or they are already
+    // connected. A live request the other way round is accepted instead of mirrored.
+    public ConnectionRequest send(UserL sender, UserL receiver) {
+        int s = graph.nodeId(sender.id), r = graph.nodeId(receiver.id);
+        if (s == r || graph.areConnected(sender.id, receiver.id)) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        ConnectionRequest request = new ConnectionRequest(sender, receiver, now);
+        ConnectionRequest[] replaced = new ConnectionRequest[1];
+        ConnectionRequest current = pending.compute(key(s, r), (k, existing) -> {
+            if (existing != null && !isExpired(existing, now)) {
+                return existing;
+            }
+            replaced[0] = existing;
+            return request;
+        });
+        if (current != request) {
+            if (current.sender.id.equals(receiver.id)) {
+                accept(receiver, sender);
+            }
+            return null;
+        }
+        if (replaced[0] != null) {
+            unlinkIncoming(graph.nodeId(replaced[0].receiver.id), replaced[0]);
+        }
+        incoming.computeIfAbsent(r, k -> ConcurrentHashMap.newKeySet()).add(request);
+        return request;
+    }
+
+    // ACCEPTED whenever the two end up connected, so retries are harmless
+    public RequestStatus accept(UserL sender, UserL receiver) {
+        int s = graph.nodeId(sender.id), r = graph.nodeId(receiver.id);
+        ConnectionRequest request = take(s, r);
+        if (request == null) {
+            return graph.areConnected(sender.id, receiver.id) ? RequestStatus.ACCEPTED : RequestStatus.NOT_FOUND;
+        }
+        if (isExpired(request, System.currentTimeMillis())) {
+            return RequestStatus.EXPIRED;
+        }
+        if (!graph.areConnected(sender.id, receiver.id)) {
+            try {
+                onConnect.accept(sender, receiver);
+            } catch (RuntimeException e) {
+                restore(s, r, request);
+                throw e;
+            }
+            graph.addEdge(s, r);
+        }
+        return RequestStatus.ACCEPTED;
+    }
+
+    public RequestStatus reject(UserL sender, UserL receiver) {
+        int s = graph.findNodeId(sender.id), r = graph.findNodeId(receiver.id);
+        ConnectionRequest request = s < 0 || r < 0 ? null : take(s, r);
+        if (request == null) {
+            return RequestStatus.NOT_FOUND;
+        }
+        return isExpired(request, System.currentTimeMillis()) ? RequestStatus.EXPIRED : RequestStatus.REJECTED;
+    }
+
+    public RequestStatus status(UserL sender, UserL receiver) {
+        if (graph.areConnected(sender.id, receiver.id)) {
+            return RequestStatus.ACCEPTED;
+        }
+        int s = graph.findNodeId(sender.id), r = graph.findNodeId(receiver.id);
+        ConnectionRequest request = s < 0 || r < 0 ? null : pending.get(key(s, r));
+        if (request == null || !request.sender.id.equals(sender.id)) {
+            return RequestStatus.NOT_FOUND;
+        }
+        return isExpired(request, System.currentTimeMillis()) ? RequestStatus.EXPIRED : RequestStatus.PENDING;
+    }
+
+    // Accepts every live request addressed to receiver; returns how many were accepted
+    public int acceptAll(UserL receiver) {
+        Set<ConnectionRequest> inbox = incoming.get(graph.findNodeId(receiver.id));
+        int accepted = 0;
+        if (inbox != null) {
+            for (ConnectionRequest request : inbox.toArray(new ConnectionRequest[0])) {
+                if (accept(request.sender, receiver) == RequestStatus.ACCEPTED) {
+                    accepted++;
+                }
+            }
+        }
+        return accepted;
+    }
+
+    public List<ConnectionRequest> pendingFor(UserL receiver) {
+        int r = graph.findNodeId(receiver.id);
+        Set<ConnectionRequest> inbox = incoming.get(r);
+        List<ConnectionRequest> live = new ArrayList<>();
+        if (inbox != null) {
+            long now = System.currentTimeMillis();
+            for (ConnectionRequest request : inbox) {
+                if (pending.get(key(graph.nodeId(request.sender.id), r)) != request) {
+                    inbox.remove(request); // taken while send() was still linking it
+                } else if (!isExpired(request, now)) {
+                    live.add(request);
+                }
+            }
+        }
+        live.sort((a, b) -> Long.compare(b.sentAtMillis, a.sentAtMillis));
+        return live;
+    }
+
+    // Drops expired requests; returns how many were removed
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int purged = 0;
+        for (Map.Entry<Long, ConnectionRequest> entry : pending.entrySet()) {
+            ConnectionRequest request = entry.getValue();
+            if (isExpired(request, now) && pending.remove(entry.getKey(), request)) {
+                unlinkIncoming(graph.nodeId(request.receiver.id), request);
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    // Removes the request from sender to receiver; one the other way round is left alone
+    private ConnectionRequest take(int sender, int receiver) {
+        long key = key(sender, receiver);
+        ConnectionRequest request;
+        do {
+            request = pending.get(key);
+            if (request == null || graph.nodeId(request.sender.id) != sender) {
+                return null;
+            }
+        } while (!pending.remove(key, request));
+        unlinkIncoming(receiver, request);
+        return request;
+    }
+
+    // Puts a taken request back unless a newer one replaced it meanwhile
+    private void restore(int sender, int receiver, ConnectionRequest request) {
+        if (pending.putIfAbsent(key(sender, receiver), request) == null) {
+            incoming.computeIfAbsent(receiver, k -> ConcurrentHashMap.newKeySet()).add(request);
+        }
+    }
+
+    private void unlinkIncoming(int receiver, ConnectionRequest request) {
+        Set<ConnectionRequest> inbox = incoming.get(receiver);
+        if (inbox != null) {
+            inbox.remove(request);
+        }
+    }
+
+    private boolean isExpired(ConnectionRequest request, long now) {
+        return now - request.sentAtMillis >= ttlMillis;
+    }
+}
+
+// One page of a conversation, newest first. Pass nextCursor back to get older messages.
+class MessagePage {
+    static final long FIRST_PAGE = Long.MAX_VALUE;
+
+    final List<Message> messages;
+    final long nextCursor; // -1 when there is nothing older
+
+    MessagePage(List<Message> messages, long nextCursor) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor >= 0;
+    }
+}
+
+// A run of consecutive messages. Held on the heap until spilled, then read back from a
+// memory-mapped file: [long timestamp][byte fromFirst][long id][int contentLen][content]
+class MessageSegment {
+    final long firstSeq;
+    Message[] messages;
+    int count;
+    MappedByteBuffer spilled;
+    Path file; // backing file of spilled, deleted by MessageStore.close()
+    int[] offsets;
+
+    MessageSegment(long firstSeq, int capacity) {
+        this.firstSeq = firstSeq;
+        this.messages = new Message[capacity];
+    }
+}
+
+// Append-only log of one conversation, split into fixed-size segments. Messages are numbered
+// under the conversation's own lock and the sequence number serves as the history cursor. Ids
+// and timestamps are taken by the sender before that, so concurrent senders can be numbered
+// out of timestamp order; history follows the sequence.
+class Conversation {
+    static final int SEGMENT_SIZE = 256;
+
+    final long id;
+    final UserL first, second;
+    private final ArrayList<MessageSegment> segments = new ArrayList<>();
+    private long size = 0;
+    private int inMemory = 0;
+    private int spilledSegments = 0; // segments below this index live on disk
+    private long mark = 0, sizeAtMark = 0; // size when the first append after MessageStore mark arrived
+
+    Conversation(long id, UserL first, UserL second) {
+        this.id = id;
+        this.first = first;
+        this.second = second;
+    }
+
+    public synchronized Message append(long messageId, UserL sender, String content, long timestampMillis, long currentMark) {
+        if (mark != currentMark) {
+            mark = currentMark;
+            sizeAtMark = size;
+        }
+        Message message = new Message(messageId, content, sender, sender == first ? second : first);
+        message.timestamp = new Date(timestampMillis);
+        MessageSegment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (tail == null || tail.count == SEGMENT_SIZE) {
+            tail = new MessageSegment(size, SEGMENT_SIZE);
+            segments.add(tail);
+        }
+        tail.messages[tail.count++] = message;
+        size++;
+        inMemory++;
+        return message;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    // Oldest first, including spilled segments, leaving out messages appended after the given mark
+    public synchronized void forEachMessage(long upToMark, Consumer<Message> action) {
+        long end = mark == upToMark ? sizeAtMark : size;
+        for (MessageSegment segment : segments) {
+            for (int i = 0; i < segment.count && segment.firstSeq + i < end; i++) {
+                action.accept(segment.messages != null ? segment.messages[i] : readSpilled(segment, i));
+            }
+        }
+    }
+
+    public synchronized MessagePage history(long cursor, int limit) {
+        long seq = Math.min(cursor, size) - 1;
+        List<Message> page = new ArrayList<>(Math.max(0, (int) Math.min(limit, seq + 1)));
+        int index = (int) (seq / SEGMENT_SIZE);
+        while (seq >= 0 && page.size() < limit) {
+            MessageSegment segment = segments.get(index);
+            for (int i = (int) (seq - segment.firstSeq); i >= 0 && page.size() < limit; i--, seq--) {
+                page.add(segment.messages != null ? segment.messages[i] : readSpilled(segment, i));
+            }
+            index--;
+        }
+        return new MessagePage(page, seq >= 0 ? seq + 1 : -1);
+    }
+
+    // Moves the oldest full segments to memory-mapped files until at most budget messages stay on the heap
+    public synchronized void spill(Path directory, int budget) {
+        while (inMemory > budget && spilledSegments < segments.size() - 1) {
+            MessageSegment segment = segments.get(spilledSegments);
+            Path file = directory.resolve(String.format("conversation-%016x-%010d.seg", id, segment.firstSeq));
+            try {
+                writeSpilled(segment, file);
+            } catch (IOException e) {
+                System.err.println("Failed to spill conversation segment to " + file + ": " + e.getMessage());
+                return; // keep it on the heap
+            }
+            segment.messages = null;
+            inMemory -= segment.count;
+            spilledSegments++;
+        }
+    }
+
+    private void writeSpilled(MessageSegment segment, Path file) throws IOException {
+        byte[][] contents = new byte[segment.count][];
+        int[] offsets = new int[segment.count];
+        int bytes = 0;
+        for (int i = 0; i < segment.count; i++) {
+            contents[i] = segment.messages[i].content.getBytes(StandardCharsets.UTF_8);
+            offsets[i] = bytes;
+            bytes += Long.BYTES * 2 + 1 + Integer.BYTES + contents[i].length;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        }
+        for (int i = 0; i < segment.count; i++) {
+            Message message = segment.messages[i];
+            buffer.putLong(message.timestamp.getTime());
+            buffer.put((byte) (message.sender == first ? 1 : 0));
+            buffer.putLong(message.id);
+            buffer.putInt(contents[i].length).put(contents[i]);
+        }
+        segment.offsets = offsets;
+        segment.spilled = buffer;
+        segment.file = file;
+    }
+
+    public synchronized void deleteSpilled() {
+        for (int i = 0; i < spilledSegments; i++) {
+            MessageSegment segment = segments.get(i);
+            try {
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                System.err.println("Failed to delete conversation segment " + segment.file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private Message readSpilled(MessageSegment segment, int index) {
+        ByteBuffer record = segment.spilled.duplicate();
+        record.position(segment.offsets[index]);
+        long timestamp = record.getLong();
+        boolean fromFirst = record.get() == 1;
+        long id = record.getLong();
+        byte[] content = new byte[record.getInt()];
+        record.get(content);
+        Message message = new Message(id, new String(content, StandardCharsets.UTF_8),
+                fromFirst ? first : second, fromFirst ? second : first);
+        message.timestamp = new Date(timestamp);
+        return message;
+    }
+}
+
+// Conversations keyed by the two participants' int ids (smaller id in the high half). Senders
+// only contend when they write to the same conversation. With a spill directory, conversations
+// holding more than memoryBudget messages push their oldest segments out to mapped files. Those
+// files are scratch space: leftovers from an earlier run are removed on start, the rest on close().
+class MessageStore {
+    static final int DEFAULT_MEMORY_BUDGET = 4 * Conversation.SEGMENT_SIZE;
+    private static final String SPILL_GLOB = "conversation-*.seg";
+
+    private final ConcurrentHashMap<Long, Conversation> conversations = new ConcurrentHashMap<>();
+    private final Path spillDirectory;
+    private final int memoryBudget;
+    private volatile long mark = 0;
+
+    MessageStore(Path spillDirectory, int memoryBudget) {
+        this.spillDirectory = spillDirectory;
+        this.memoryBudget = Math.max(memoryBudget, Conversation.SEGMENT_SIZE);
+        if (spillDirectory != null) {
+            removeStaleSpills(spillDirectory);
+        }
+    }
+
+    private static void removeStaleSpills(Path directory) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SPILL_GLOB)) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing spilled yet
+        } catch (IOException e) {
+            System.err.println("Failed to clear old conversation segments in " + directory + ": " + e.getMessage());
+        }
+    }
+
+    // Deletes the spill files; history that lives in them is no longer readable afterwards
+    public void close() {
+        for (Conversation conversation : conversations.values()) {
+            conversation.deleteSpilled();
+        }
+    }
+
+    // Starts a new mark: forEachMessage(mark, ...) leaves out everything appended after this call.
+    // The caller keeps appends out while it runs.
+    synchronized long nextMark() {
+        return ++mark;
+    }
+
+    static long conversationId(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | (Math.max(a, b) & 0xFFFFFFFFL);
+    }
+
+    public Message append(int senderId, UserL sender, int receiverId, UserL receiver, long messageId, String content,
+                          long timestampMillis) {
+        long id = conversationId(senderId, receiverId);
+        Conversation conversation = conversations.get(id);
+        if (conversation == null) {
+            conversation = conversations.computeIfAbsent(id,
+                    k -> senderId < receiverId ? new Conversation(k, sender, receiver) : new Conversation(k, receiver, sender));
+        }
+        Message message = conversation.append(messageId, sender, content, timestampMillis, mark);
+        if (spillDirectory != null && conversation.size() % Conversation.SEGMENT_SIZE == 0) {
+            conversation.spill(spillDirectory, memoryBudget);
+        }
+        return message;
+    }
+
+    public MessagePage history(int a, int b, long cursor, int limit) {
+        Conversation conversation = conversations.get(conversationId(a, b));
+        return conversation == null ? new MessagePage(new ArrayList<>(), -1) : conversation.history(cursor, limit);
+    }
+
+    public void forEachMessage(long upToMark, Consumer<Message> action) {
+        for (Conversation conversation : conversations.values()) {
+            conversation.forEachMessage(upToMark, action);
+        }
+    }
+
+    public long count(int a, int b) {
+        Conversation conversation = conversations.get(conversationId(a, b));
+        return conversation == null ? 0 : conversation.size();
+    }
+}
+
+// Sparse term vector, L2-normalised, with terms sorted so two vectors can be dotted by merging
+class TermVector {
+    final String[] terms;
+    final float[] weights;
+
+    private TermVector(String[] terms, float[] weights) {
+        this.terms = terms;
+        this.weights = weights;
+    }
+
+    // texts and fieldWeights line up; every token of texts[i] adds fieldWeights[i]
+    static TermVector of(String[] texts, float[] fieldWeights) {
+        TreeMap<String, Float> raw = new TreeMap<>();
+        for (int i = 0; i < texts.length; i++) {
+            for (String token : SearchIndex.tokenize(texts[i])) {
+                raw.merge(token, fieldWeights[i], Float::sum);
+            }
+        }
+        double norm = 0;
+        for (float w : raw.values()) {
+            norm += w * w;
+        }
+        String[] terms = raw.keySet().toArray(new String[0]);
+        float[] weights = new float[terms.length];
+        int i = 0;
+        for (float w : raw.values()) {
+            weights[i++] = (float) (w / Math.sqrt(norm));
+        }
+        return new TermVector(terms, weights);
+    }
+
+    float dot(TermVector other) {
+        float sum = 0;
+        for (int i = 0, j = 0; i < terms.length && j < other.terms.length; ) {
+            int c = terms[i].compareTo(other.terms[j]);
+            if (c == 0) {
+                sum += weights[i++] * other.weights[j++];
+            } else if (c < 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return sum;
+    }
+}
+
+// Jobs containing one term, as (weight bits << 32 | job ordinal) longs. Non-negative float bits
+// order like the floats, so the longs sort by weight. The list stays sorted as it is maintained:
+// a large main run plus a small delta run, both ascending, published together and never written
+// afterwards. Readers walk them in place from the heaviest end; an insert copies only the delta
+// and folds it into main once it outgrows DELTA_LIMIT.
+class TermPostings {
+    static final int DELTA_LIMIT = 256;
+    private static final long[] NONE = new long[0];
+
+    static final class Runs {
+        final long[] main;
+        final long[] delta;
+
+        Runs(long[] main, long[] delta) {
+            this.main = main;
+            this.delta = delta;
+        }
+    }
+
+    // Walks one Runs from the heaviest entry down
+    static final class Cursor {
+        final int term; // index of the query term this list belongs to
+        private final long[] main, delta;
+        private int mainPos, deltaPos;
+
+        Cursor(int term, Runs runs) {
+            this.term = term;
+            this.main = runs.main;
+            this.delta = runs.delta;
+            this.mainPos = main.length - 1;
+            this.deltaPos = delta.length - 1;
+        }
+
+        boolean hasNext() {
+            return mainPos >= 0 || deltaPos >= 0;
+        }
+
+        long peek() {
+            return Math.max(mainPos >= 0 ? main[mainPos] : Long.MIN_VALUE, deltaPos >= 0 ? delta[deltaPos] : Long.MIN_VALUE);
+        }
+
+        void advance() {
+            if (deltaPos < 0 || (mainPos >= 0 && main[mainPos] > delta[deltaPos])) {
+                mainPos--;
+            } else {
+                deltaPos--;
+            }
+        }
+    }
+
+    private volatile Runs runs = new Runs(NONE, NONE);
+
+    synchronized void add(int ordinal, float weight) {
+        long entry = ((long) Float.floatToIntBits(weight) << 32) | ordinal;
+        Runs current = runs;
+        long[] delta = new long[current.delta.length + 1];
+        int at = -Arrays.binarySearch(current.delta, entry) - 1;
+        System.arraycopy(current.delta, 0, delta, 0, at);
+        delta[at] = entry;
+        System.arraycopy(current.delta, at, delta, at + 1, current.delta.length - at);
+        runs = delta.length > DELTA_LIMIT ? new Runs(merge(current.main, delta), NONE) : new Runs(current.main, delta);
+    }
+
+    // Drops the entries of the given job ordinals (sorted ascending)
+    synchronized void removeAll(int[] ordinals) {
+        Runs current = runs;
+        runs = new Runs(without(current.main, ordinals), without(current.delta, ordinals));
+    }
+
+    boolean isEmpty() {
+        Runs current = runs;
+        return current.main.length == 0 && current.delta.length == 0;
+    }
+
+    Runs runs() {
+        return runs;
+    }
+
+    private static long[] merge(long[] a, long[] b) {
+        long[] merged = new long[a.length + b.length];
+        for (int i = 0, j = 0, k = 0; k < merged.length; k++) {
+            merged[k] = j == b.length || (i < a.length && a[i] < b[j]) ? a[i++] : b[j++];
+        }
+        return merged;
+    }
+
+    private static long[] without(long[] entries, int[] ordinals) {
+        long[] kept = new long[entries.length];
+        int count = 0;
+        for (long entry : entries) {
+            if (Arrays.binarySearch(ordinals, ordinal(entry)) < 0) {
+                kept[count++] = entry;
+            }
+        }
+        return count == entries.length ? entries : Arrays.copyOf(kept, count);
+    }
+
+    static int ordinal(long entry) {
+        return (int) entry;
+    }
+
+    static float weight(long entry) {
+        return Float.intBitsToFloat((int) (entry >>> 32));
+    }
+}
+
+// Cosine match between a profile's skills and job text. Each skill term owns a posting list;
+// a query merges the user's lists through a heap, biggest contributions first, and stops after
+// SCAN_BUDGET postings. Results are cached per user: a profile change drops the entry, a new
+// job is scored against cached entries on their next read instead of recomputing them. Expired
+// jobs leave the postings and the job table, and drop every cached result that lists them.
+class JobRecommender {
+    static final int SCAN_BUDGET = 20_000;
+    private static final int CHUNK_SIZE = 1024;
+    private static final float[] JOB_FIELD_WEIGHTS = {2f, 1f}; // title, description
+    private static final float[] PROFILE_FIELD_WEIGHTS = {1f};  // skills
+
+    private static final class Recommendation {
+        final Profile profile; // the result is only valid while the user still has this profile
+        final int jobCount; // jobs known when computed; later ones still need scoring
+        final int limit;
+        final int[] ordinals;
+        final float[] scores;
+
+        Recommendation(Profile profile, int jobCount, int limit, int[] ordinals, float[] scores) {
+            this.profile = profile;
+            this.jobCount = jobCount;
+            this.limit = limit;
+            this.ordinals = ordinals;
+            this.scores = scores;
+        }
+    }
+
+    private final ConcurrentHashMap<String, TermPostings> postings = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<JobPosting[]> jobChunks = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<TermVector[]> vectorChunks = new CopyOnWriteArrayList<>();
+    private volatile int jobCount = 0;
+    private final Map<Long, Integer> ordinals = new HashMap<>(); // job id -> ordinal; guarded by this
+    private final ConcurrentHashMap<String, Recommendation> cache = new ConcurrentHashMap<>();
+
+    public synchronized void addJob(JobPosting job) {
+        TermVector vector = TermVector.of(new String[] {job.title, job.description}, JOB_FIELD_WEIGHTS);
+        int ordinal = jobCount;
+        if (ordinal % CHUNK_SIZE == 0) {
+            jobChunks.add(new JobPosting[CHUNK_SIZE]);
+            vectorChunks.add(new TermVector[CHUNK_SIZE]);
+        }
+        jobChunks.get(ordinal / CHUNK_SIZE)[ordinal % CHUNK_SIZE] = job;
+        vectorChunks.get(ordinal / CHUNK_SIZE)[ordinal % CHUNK_SIZE] = vector;
+        ordinals.put(job.id, ordinal);
+        for (int i = 0; i < vector.terms.length; i++) {
+            postings.computeIfAbsent(vector.terms[i], k -> new TermPostings()).add(ordinal, vector.weights[i]);
+        }
+        jobCount = ordinal + 1; // volatile write publishes the job and its postings
+    }
+
+    public synchronized void removeJobs(List<JobPosting> expired) {
+        Map<String, List<Integer>> byTerm = new HashMap<>();
+        Set<Integer> removed = new HashSet<>();
+        for (JobPosting job : expired) {
+            Integer ordinal = ordinals.remove(job.id);
+            if (ordinal == null) {
+                continue;
+            }
+            for (String term : vector(ordinal).terms) {
+                byTerm.computeIfAbsent(term, k -> new ArrayList<>()).add(ordinal);
+            }
+            jobChunks.get(ordinal / CHUNK_SIZE)[ordinal % CHUNK_SIZE] = null;
+            vectorChunks.get(ordinal / CHUNK_SIZE)[ordinal % CHUNK_SIZE] = null;
+            removed.add(ordinal);
+        }
+        for (Map.Entry<String, List<Integer>> entry : byTerm.entrySet()) {
+            TermPostings termPostings = postings.get(entry.getKey());
+            int[] sorted = entry.getValue().stream().mapToInt(Integer::intValue).sorted().toArray();
+            termPostings.removeAll(sorted);
+            if (termPostings.isEmpty()) {
+                postings.remove(entry.getKey());
+            }
+        }
+        if (!removed.isEmpty()) {
+            // Recomputed on next read, so pages come back full
+            cache.values().removeIf(cached -> Arrays.stream(cached.ordinals).anyMatch(removed::contains));
+        }
+    }
+
+    public void invalidate(UserL user) {
+        cache.remove(user.id);
+    }
+
+    public List<JobPosting> recommend(UserL user, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        Profile current = user.profile;
+        Recommendation cached = cache.get(user.id);
+        int known = jobCount;
+        Recommendation computed = null;
+        if (cached == null || cached.profile != current || cached.limit < limit) {
+            computed = compute(current, profileVector(current), known, limit);
+        } else if (cached.jobCount < known) {
+            computed = extend(cached, profileVector(current), known);
+        }
+        if (computed != null) {
+            Recommendation result = computed;
+            // Only cache it if the profile did not change (and invalidate) while we computed
+            cache.compute(user.id, (id, existing) -> user.profile == current ? result : existing);
+            cached = computed;
+        }
+        List<JobPosting> jobs = new ArrayList<>(Math.min(limit, cached.ordinals.length));
+        for (int i = 0; i < cached.ordinals.length && jobs.size() < limit; i++) {
+            JobPosting job = job(cached.ordinals[i]);
+            if (job != null && !job.expired) {
+                jobs.add(job);
+            }
+        }
+        return jobs;
+    }
+
+    private static TermVector profileVector(Profile profile) {
+        StringBuilder skills = new StringBuilder();
+        for (Skill skill : profile.skills) {
+            skills.append(skill.name).append(' ');
+        }
+        return TermVector.of(new String[] {skills.toString()}, PROFILE_FIELD_WEIGHTS);
+    }
+
+    private Recommendation compute(Profile source, TermVector profile, int known, int limit) {
+        // One cursor per skill, ordered by the contribution of its next entry
+        PriorityQueue<TermPostings.Cursor> merge = new PriorityQueue<>((a, b) -> Float.compare(
+                contribution(profile, b), contribution(profile, a)));
+        for (int i = 0; i < profile.terms.length; i++) {
+            TermPostings termPostings = postings.get(profile.terms[i]);
+            if (termPostings != null) {
+                TermPostings.Cursor cursor = new TermPostings.Cursor(i, termPostings.runs());
+                if (cursor.hasNext()) {
+                    merge.add(cursor);
+                }
+            }
+        }
+        Map<Integer, Float> scores = new HashMap<>();
+        for (int budget = SCAN_BUDGET; budget > 0 && !merge.isEmpty(); budget--) {
+            TermPostings.Cursor cursor = merge.poll();
+            int ordinal = TermPostings.ordinal(cursor.peek());
+            if (ordinal < known) {
+                scores.merge(ordinal, contribution(profile, cursor), Float::sum);
+            }
+            cursor.advance();
+            if (cursor.hasNext()) {
+                merge.add(cursor);
+            }
+        }
+        return top(source, scores, known, limit);
+    }
+
+    private static float contribution(TermVector profile, TermPostings.Cursor cursor) {
+        return profile.weights[cursor.term] * TermPostings.weight(cursor.peek());
+    }
+
+    // Scores only the jobs added since the cached result and merges them in
+    private Recommendation extend(Recommendation cached, TermVector profile, int known) {
+        Map<Integer, Float> scores = new HashMap<>();
+        for (int i = 0; i < cached.ordinals.length; i++) {
+            scores.put(cached.ordinals[i], cached.scores[i]);
+        }
+        for (int ordinal = cached.jobCount; ordinal < known; ordinal++) {
+            TermVector vector = vector(ordinal);
+            float score = vector == null ? 0 : profile.dot(vector);
+            if (score > 0) {
+                scores.put(ordinal, score);
+            }
+        }
+        return top(cached.profile, scores, known, cached.limit);
+    }
+
+    // Highest scores first; newer jobs win ties
+    private static Recommendation top(Profile profile, Map<Integer, Float> scores, int known, int limit) {
+        Comparator<Map.Entry<Integer, Float>> order = Map.Entry.<Integer, Float>comparingByValue()
+                .thenComparing(Map.Entry.comparingByKey());
+        PriorityQueue<Map.Entry<Integer, Float>> heap = new PriorityQueue<>(order);
+        for (Map.Entry<Integer, Float> entry : scores.entrySet()) {
+            heap.add(entry);
+            if (heap.size() > limit) {
+                heap.poll();
+            }
+        }
+        int[] ordinals = new int[heap.size()];
+        float[] values = new float[heap.size()];
+        for (int i = ordinals.length - 1; i >= 0; i--) {
+            Map.Entry<Integer, Float> entry = heap.poll();
+            ordinals[i] = entry.getKey();
+            values[i] = entry.getValue();
+        }
+        return new Recommendation(profile, known, limit, ordinals, values);
+    }
+
+    // Null once the job has expired
+    private JobPosting job(int ordinal) {
+        return jobChunks.get(ordinal / CHUNK_SIZE)[ordinal % CHUNK_SIZE];
+    }
+
+    private TermVector vector(int ordinal) {
+        return vectorChunks.get(ordinal / CHUNK_SIZE)[ordinal % CHUNK_SIZE];
+    }
+}
+
+// Append-only run of jobs that fall into one time bucket. Readers go lock-free: size is written
+// after the slot, so everything below size() is visible.
+class JobBucket {
+    private volatile JobPosting[] jobs = new JobPosting[16];
+    private volatile int size = 0;
+
+    synchronized void add(JobPosting job) {
+        if (size == jobs.length) {
+            jobs = Arrays.copyOf(jobs, size * 2);
+        }
+        jobs[size] = job;
+        size = size + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    JobPosting get(int index) {
+        return jobs[index];
+    }
+}
+
+// Jobs partitioned into fixed-width postedDate buckets. Appends touch only the current bucket,
+// and expiry drops whole buckets.
+class TimePartitionedJobs {
+    private final long bucketMillis;
+    private final ConcurrentSkipListMap<Long, JobBucket> buckets = new ConcurrentSkipListMap<>();
+
+    TimePartitionedJobs(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    void add(JobPosting job) {
+        buckets.computeIfAbsent(job.postedDate.getTime() / bucketMillis, k -> new JobBucket()).add(job);
+    }
+
+    // Newest first
+    List<JobPosting> latest(int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<JobPosting> result = new ArrayList<>(Math.min(limit, 64));
+        for (JobBucket bucket : buckets.descendingMap().values()) {
+            for (int i = bucket.size() - 1; i >= 0 && result.size() < limit; i--) {
+                result.add(bucket.get(i));
+            }
+            if (result.size() == limit) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    // Drops every bucket that ends at or before cutoffMillis; expired may be null
+    void expireBefore(long cutoffMillis, Consumer<JobPosting> expired) {
+        Iterator<JobBucket> stale = buckets.headMap(cutoffMillis / bucketMillis, false).values().iterator();
+        while (stale.hasNext()) {
+            JobBucket bucket = stale.next();
+            stale.remove();
+            if (expired != null) {
+                for (int i = 0; i < bucket.size(); i++) {
+                    expired.accept(bucket.get(i));
+                }
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+
+    // Oldest first
+    void forEach(Consumer<JobPosting> action) {
+        for (JobBucket bucket : buckets.values()) {
+            for (int i = 0; i < bucket.size(); i++) {
+                action.accept(bucket.get(i));
+            }
+        }
+    }
+}
+
+// All job postings by time, with the same time partitioning per company and per location
+class JobStore {
+    static final long DEFAULT_BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final long bucketMillis;
+    private final TimePartitionedJobs all;
+    private final ConcurrentHashMap<Long, JobPosting> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TimePartitionedJobs> byCompany = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TimePartitionedJobs> byLocation = new ConcurrentHashMap<>();
+
+    JobStore(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+        this.all = new TimePartitionedJobs(bucketMillis);
+    }
+
+    static String key(String value) {
+        return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public void add(JobPosting job) {
+        byId.put(job.id, job);
+        all.add(job);
+        addTo(byCompany, key(job.company), job);
+        addTo(byLocation, key(job.location), job);
+    }
+
+    private void addTo(ConcurrentHashMap<String, TimePartitionedJobs> index, String key, JobPosting job) {
+        if (key != null) {
+            // compute() so a concurrent expiry cannot drop the partition between lookup and add
+            index.compute(key, (k, jobs) -> {
+                TimePartitionedJobs partition = jobs != null ? jobs : new TimePartitionedJobs(bucketMillis);
+                partition.add(job);
+                return partition;
+            });
+        }
+    }
+
+    public boolean contains(long id) {
+        return byId.containsKey(id);
+    }
+
+    public List<JobPosting> latest(int limit) {
+        return all.latest(limit);
+    }
+
+    public List<JobPosting> atCompany(String company, int limit) {
+        TimePartitionedJobs jobs = byCompany.get(key(company));
+        return jobs == null ? new ArrayList<>() : jobs.latest(limit);
+    }
+
+    public List<JobPosting> inLocation(String location, int limit) {
+        TimePartitionedJobs jobs = byLocation.get(key(location));
+        return jobs == null ? new ArrayList<>() : jobs.latest(limit);
+    }
+
+    // Removes jobs in buckets that ended before cutoffMillis and returns them
+    public List<JobPosting> expireBefore(long cutoffMillis) {
+        List<JobPosting> expired = new ArrayList<>();
+        all.expireBefore(cutoffMillis, expired::add);
+        for (JobPosting job : expired) {
+            byId.remove(job.id, job);
+        }
+        expireIndex(byCompany, cutoffMillis);
+        expireIndex(byLocation, cutoffMillis);
+        return expired;
+    }
+
+    private static void expireIndex(ConcurrentHashMap<String, TimePartitionedJobs> index, long cutoffMillis) {
+        for (String key : index.keySet()) {
+            index.computeIfPresent(key, (k, jobs) -> {
+                jobs.expireBefore(cutoffMillis, null);
+                return jobs.isEmpty() ? null : jobs;
+            });
+        }
+    }
+
+    // Oldest first
+    public List<JobPosting> all() {
+        List<JobPosting> jobs = new ArrayList<>();
+        all.forEach(jobs::add);
+        return jobs;
+    }
+}
+
+// Write-ahead log plus compact binary snapshots for LinkedInService.
+//
+// WAL segments (wal-NNNNNN.log) hold [int length][int crc32][byte op][payload] records; a bad
+// length or checksum marks a torn tail and ends replay of that segment. A snapshot
+// (snapshot-NNNNNN.bin) covers every WAL segment numbered below NNNNNN. Its sections are cut
+// into chunks of CHUNK_RECORDS records, and a footer lists each chunk's offset so recovery can
+// map and decode the chunks in parallel.
+//
+// Callers hand encoded records to a single writer thread, which writes everything queued since its
+// last pass with one gathering write (group commit) and then wakes the callers; a failed write is
+// thrown back to each of them. Snapshots are fuzzy: state changes made after the WAL rotation may
+// or may not be in the snapshot, so replaying the segments from the rotation onwards must be
+// idempotent.
+class LinkedInPersistence {
+    static final byte OP_REGISTER = 1, OP_CONNECT = 2, OP_MESSAGE = 3, OP_JOB = 4, OP_UPDATE_EMAIL = 5, OP_EXPIRE_JOBS = 6;
+    static final int SNAPSHOT_MAGIC = 0x4C4B4E53; // "LKNS"
+    static final int SNAPSHOT_VERSION = 1;
+    static final int CHUNK_RECORDS = 65_536;
+    static final long WAL_SEGMENT_BYTES = 256L * 1024 * 1024;
+    private static final int SECTION_NODES = 0, SECTION_USERS = 1, SECTION_EDGES = 2, SECTION_JOBS = 3, SECTION_MESSAGES = 4;
+    private static final int SECTIONS = 5;
+
+    // Chunk location in a snapshot file
+    private static final class Chunk {
+        final long offset, length;
+        final int records;
+
+        Chunk(long offset, long length, int records) {
+            this.offset = offset;
+            this.length = length;
+            this.records = records;
+        }
+    }
+
+    private static final class DecodedMessages {
+        final long[] ids, timestamps;
+        final int[] senders, receivers; // graph node ids
+        final String[] contents;
+
+        DecodedMessages(int records) {
+            ids = new long[records];
+            timestamps = new long[records];
+            senders = new int[records];
+            receivers = new int[records];
+            contents = new String[records];
+        }
+    }
+
+    // Records queued for one pass of the WAL writer
+    private static final class WalBatch {
+        final List<ByteBuffer> records = new ArrayList<>();
+        boolean rotate; // start a new segment once the records are written
+        private boolean done;
+        private int segment; // current segment after the batch
+        private IOException failure;
+
+        synchronized void complete(int segment, IOException failure) {
+            this.segment = segment;
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+
+        // Returns the write failure, or null
+        synchronized IOException await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the record is queued already, so wait for its outcome
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return failure;
+        }
+    }
+
+    private final Path directory;
+    private FileChannel wal; // owned by the writer thread once recovery is done
+    private int walSegment;
+    // Guarded by this
+    private WalBatch pending = new WalBatch();
+    private boolean forceRequested, closed;
+    private Thread writer;
+
+    LinkedInPersistence(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    static Path walPath(Path directory, int segment) {
+        return directory.resolve(String.format("wal-%06d.log", segment));
+    }
+
+    static Path snapshotPath(Path directory, int segment) {
+        return directory.resolve(String.format("snapshot-%06d.bin", segment));
+    }
+
+    // Segment numbers of files named prefix-NNNNNN.suffix, ascending
+    private static List<Integer> segments(Path directory, String prefix, String suffix) throws IOException {
+        List<Integer> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "-*" + suffix)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    found.add(Integer.parseInt(name.substring(prefix.length() + 1, name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    // Loads the newest snapshot, replays the WAL written after it and opens a fresh WAL segment
+    void recover(LinkedInService service) throws IOException {
+        List<Integer> snapshots = segments(directory, "snapshot", ".bin");
+        int from = 0;
+        if (!snapshots.isEmpty()) {
+            from = snapshots.get(snapshots.size() - 1);
+            loadSnapshot(snapshotPath(directory, from), service);
+        }
+        int last = from;
+        for (int segment : segments(directory, "wal", ".log")) {
+            if (segment >= from) {
+                replay(walPath(directory, segment), service);
+            }
+            last = Math.max(last, segment);
+        }
+        openWal(last + 1);
+        writer = new Thread(this::writeLoop, "linkedin-wal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void loadSnapshot(Path path, LinkedInService service) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Integer.BYTES * 2);
+            if (header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a snapshot: " + path);
+            }
+            long footerOffset = channel.map(FileChannel.MapMode.READ_ONLY, size - Long.BYTES, Long.BYTES).getLong();
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, size - Long.BYTES - footerOffset);
+            List<List<Chunk>> sections = new ArrayList<>();
+            for (int s = 0; s < SECTIONS; s++) {
+                int chunkCount = footer.getInt();
+                List<Chunk> chunks = new ArrayList<>(chunkCount);
+                for (int c = 0; c < chunkCount; c++) {
+                    chunks.add(new Chunk(footer.getLong(), footer.getLong(), footer.getInt()));
+                }
+                sections.add(chunks);
+            }
+
+            // Graph node ids have to come back in their original order
+            for (Chunk chunk : sections.get(SECTION_NODES)) {
+                ByteBuffer in = map(channel, chunk);
+                for (int i = 0; i < chunk.records; i++) {
+                    service.restoreNode(readString(in));
+                }
+            }
+            sections.get(SECTION_USERS).parallelStream().forEach(chunk -> {
+                ByteBuffer in = map(channel, chunk);
+                for (int i = 0; i < chunk.records; i++) {
+                    service.restoreUser(readUser(in));
+                }
+            });
+            sections.get(SECTION_EDGES).parallelStream().forEach(chunk -> {
+                ByteBuffer in = map(channel, chunk);
+                for (int i = 0; i < chunk.records; i++) {
+                    service.restoreEdge(in.getInt(), in.getInt());
+                }
+            });
+            // Jobs and messages decode in parallel but are applied in their original order
+            List<List<JobPosting>> jobs = sections.get(SECTION_JOBS).parallelStream().map(chunk -> {
+                ByteBuffer in = map(channel, chunk);
+                List<JobPosting> decoded = new ArrayList<>(chunk.records);
+                for (int i = 0; i < chunk.records; i++) {
+                    decoded.add(readJob(in));
+                }
+                return decoded;
+            }).collect(Collectors.toList());
+            for (List<JobPosting> chunk : jobs) {
+                chunk.forEach(service::restoreJob);
+            }
+            List<DecodedMessages> messages = sections.get(SECTION_MESSAGES).parallelStream().map(chunk -> {
+                ByteBuffer in = map(channel, chunk);
+                DecodedMessages decoded = new DecodedMessages(chunk.records);
+                for (int i = 0; i < chunk.records; i++) {
+                    decoded.ids[i] = in.getLong();
+                    decoded.timestamps[i] = in.getLong();
+                    decoded.senders[i] = in.getInt();
+                    decoded.receivers[i] = in.getInt();
+                    decoded.contents[i] = readString(in);
+                }
+                return decoded;
+            }).collect(Collectors.toList());
+            for (DecodedMessages chunk : messages) {
+                for (int i = 0; i < chunk.ids.length; i++) {
+                    service.restoreMessage(chunk.ids[i], chunk.timestamps[i], chunk.senders[i], chunk.receivers[i], chunk.contents[i]);
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, Chunk chunk) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, chunk.offset, chunk.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void replay(Path path, LinkedInService service) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 check = new CRC32();
+            while (in.remaining() >= Integer.BYTES * 2) {
+                int length = in.getInt();
+                int expected = in.getInt();
+                if (length <= 0 || length > in.remaining()) {
+                    break; // torn tail
+                }
+                ByteBuffer record = in.slice();
+                record.limit(length);
+                check.reset();
+                check.update(record.duplicate());
+                if ((int) check.getValue() != expected) {
+                    System.err.println("Checksum mismatch in " + path + " at offset " + (in.position() - Integer.BYTES * 2) + ", ignoring the rest");
+                    break;
+                }
+                in.position(in.position() + length);
+                apply(record, service);
+            }
+        }
+    }
+
+    private static void apply(ByteBuffer record, LinkedInService service) {
+        switch (record.get()) {
+            case OP_REGISTER:
+                service.restoreUser(readUser(record));
+                break;
+            case OP_CONNECT:
+                service.restoreConnection(readString(record), readString(record));
+                break;
+            case OP_MESSAGE:
+                service.restoreMessage(record.getLong(), record.getLong(), readString(record), readString(record), readString(record));
+                break;
+            case OP_JOB:
+                service.restoreJob(readJob(record));
+                break;
+            case OP_UPDATE_EMAIL:
+                service.restoreEmail(readString(record), readString(record));
+                break;
+            case OP_EXPIRE_JOBS:
+                service.restoreJobExpiry(record.getLong());
+                break;
+            default:
+                System.err.println("Unknown WAL record type, skipping");
+        }
+    }
+
+    // ---- Write-ahead log ----
+
+    private void openWal(int segment) throws IOException {
+        wal = FileChannel.open(walPath(directory, segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        walSegment = segment;
+    }
+
+    void logRegister(UserL user) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(OP_REGISTER);
+            writeUser(out, user);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream
+        }
+        append(bytes);
+    }
+
+    void logConnect(String a, String b) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(OP_CONNECT);
+            writeString(out, a);
+            writeString(out, b);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes);
+    }
+
+    void logMessage(long id, long timestampMillis, String senderId, String receiverId, String content) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + content.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(OP_MESSAGE);
+            out.writeLong(id);
+            out.writeLong(timestampMillis);
+            writeString(out, senderId);
+            writeString(out, receiverId);
+            writeString(out, content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes);
+    }
+
+    void logJob(JobPosting job) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(OP_JOB);
+            writeJob(out, job);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes);
+    }
+
+    void logEmailChange(String userId, String email) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(OP_UPDATE_EMAIL);
+            writeString(out, userId);
+            writeString(out, email);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes);
+    }
+
+    void logJobExpiry(long cutoffMillis) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(OP_EXPIRE_JOBS);
+            out.writeLong(cutoffMillis);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes);
+    }
+
+    // Returns once the record is written; throws UncheckedIOException if the write failed
+    private void append(ByteArrayOutputStream payload) {
+        byte[] body = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES * 2 + body.length);
+        record.putInt(body.length).putInt((int) crc.getValue()).put(body).flip();
+        WalBatch batch;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("WAL is closed");
+            }
+            batch = pending;
+            batch.records.add(record);
+            notifyAll();
+        }
+        IOException failure = batch.await();
+        if (failure != null) {
+            throw new UncheckedIOException("Failed to write WAL record", failure);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            WalBatch batch;
+            boolean force, last;
+            synchronized (this) {
+                while (pending.records.isEmpty() && !pending.rotate && !forceRequested && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Only close() stops the writer
+                    }
+                }
+                batch = pending;
+                pending = new WalBatch();
+                force = forceRequested;
+                forceRequested = false;
+                last = closed;
+            }
+            IOException failure = write(batch);
+            if (failure == null && (force || last)) {
+                try {
+                    wal.force(false);
+                } catch (IOException e) {
+                    System.err.println("Failed to sync WAL: " + e.getMessage());
+                }
+            }
+            if (failure == null && batch.rotate) {
+                try {
+                    nextSegment();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            batch.complete(walSegment, failure);
+            if (last) {
+                try {
+                    wal.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close WAL: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    // One gathering write for the whole batch. On failure the partial batch is cut off again so
+    // later records do not land behind a torn one.
+    private IOException write(WalBatch batch) {
+        if (batch.records.isEmpty()) {
+            return null;
+        }
+        ByteBuffer[] records = batch.records.toArray(new ByteBuffer[0]);
+        long bytes = 0;
+        for (ByteBuffer record : records) {
+            bytes += record.remaining();
+        }
+        long start = -1;
+        try {
+            if (wal.position() > 0 && wal.position() + bytes > WAL_SEGMENT_BYTES) {
+                nextSegment();
+            }
+            start = wal.position();
+            for (long left = bytes; left > 0; ) {
+                left -= wal.write(records);
+            }
+            return null;
+        } catch (IOException e) {
+            if (start >= 0) {
+                try {
+                    wal.truncate(start);
+                    wal.position(start);
+                } catch (IOException ignored) {
+                    // Replay stops at the torn record either way
+                }
+            }
+            return e;
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        wal.force(false);
+        wal.close();
+        openWal(walSegment + 1);
+    }
+
+    // Asks the writer to push WAL writes from the page cache to disk
+    synchronized void sync() {
+        forceRequested = true;
+        notifyAll();
+    }
+
+    // Writes what is still queued, syncs and closes the WAL
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Starts a new WAL segment after everything queued so far and returns its number. Callers
+    // block logged mutations while this runs, so every change the log holds before the new
+    // segment is already applied in memory.
+    int rotate() throws IOException {
+        WalBatch batch;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("WAL is closed");
+            }
+            batch = pending;
+            batch.rotate = true;
+            notifyAll();
+        }
+        IOException failure = batch.await();
+        if (failure != null) {
+            throw failure;
+        }
+        return batch.segment;
+    }
+
+    // ---- Snapshots ----
+
+    // Writes a snapshot that replaces the WAL segments below covered (from rotate()) and drops them
+    // and older snapshots. The state may keep changing meanwhile; messages are cut off at the given
+    // MessageStore mark, everything else replays idempotently.
+    void snapshot(int covered, Collection<UserL> users, ConnectionGraph graph, List<JobPosting> jobs, MessageStore messages,
+                  long messageMark) throws IOException {
+        Path target = snapshotPath(directory, covered);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            FileChannel channel = file.getChannel();
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            List<List<Chunk>> sections = new ArrayList<>();
+
+            SectionWriter section = new SectionWriter(out, channel);
+            int nodes = graph.size();
+            for (int node = 0; node < nodes; node++) {
+                writeString(out, graph.key(node));
+                section.endRecord();
+            }
+            sections.add(section.finish());
+
+            section = new SectionWriter(out, channel);
+            for (UserL user : users) {
+                writeUser(out, user);
+                section.endRecord();
+            }
+            sections.add(section.finish());
+
+            section = new SectionWriter(out, channel);
+            for (int node = 0; node < nodes; node++) {
+                for (int neighbour : graph.neighbourIds(node)) {
+                    if (neighbour > node && neighbour < nodes) { // newer nodes' edges are in the WAL
+                        out.writeInt(node);
+                        out.writeInt(neighbour);
+                        section.endRecord();
+                    }
+                }
+            }
+            sections.add(section.finish());
+
+            section = new SectionWriter(out, channel);
+            for (JobPosting job : jobs) {
+                writeJob(out, job);
+                section.endRecord();
+            }
+            sections.add(section.finish());
+
+            SectionWriter messageSection = new SectionWriter(out, channel);
+            messages.forEachMessage(messageMark, message -> {
+                try {
+                    out.writeLong(message.id);
+                    out.writeLong(message.timestamp.getTime());
+                    out.writeInt(graph.nodeId(message.sender.id));
+                    out.writeInt(graph.nodeId(message.receiver.id));
+                    writeString(out, message.content);
+                    messageSection.endRecord();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            sections.add(messageSection.finish());
+
+            long footerOffset = channel.position();
+            for (List<Chunk> chunks : sections) {
+                out.writeInt(chunks.size());
+                for (Chunk chunk : chunks) {
+                    out.writeLong(chunk.offset);
+                    out.writeLong(chunk.length);
+                    out.writeInt(chunk.records);
+                }
+            }
+            out.writeLong(footerOffset);
+            out.flush();
+            channel.force(false);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (int segment : segments(directory, "wal", ".log")) {
+            if (segment < covered) {
+                Files.deleteIfExists(walPath(directory, segment));
+            }
+        }
+        for (int segment : segments(directory, "snapshot", ".bin")) {
+            if (segment < covered) {
+                Files.deleteIfExists(snapshotPath(directory, segment));
+            }
+        }
+    }
+
+    // Tracks chunk boundaries while a section is written
+    private static final class SectionWriter {
+        private final DataOutputStream out;
+        private final FileChannel channel;
+        private final List<Chunk> chunks = new ArrayList<>();
+        private long chunkStart;
+        private int records;
+
+        SectionWriter(DataOutputStream out, FileChannel channel) throws IOException {
+            this.out = out;
+            this.channel = channel;
+            start();
+        }
+
+        private void start() throws IOException {
+            out.flush();
+            chunkStart = channel.position();
+            records = 0;
+        }
+
+        void endRecord() throws IOException {
+            if (++records == CHUNK_RECORDS) {
+                finishChunk();
+                start();
+            }
+        }
+
+        private void finishChunk() throws IOException {
+            out.flush();
+            if (records > 0) {
+                chunks.add(new Chunk(chunkStart, channel.position() - chunkStart, records));
+            }
+        }
+
+        List<Chunk> finish() throws IOException {
+            finishChunk();
+            return chunks;
+        }
+    }
+
+    // ---- Record encoding ----
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static void writeUser(DataOutputStream out, UserL user) throws IOException {
+        writeString(out, user.id);
+        writeString(out, user.name);
+        writeString(out, user.email);
+        writeBytes(out, user.passwordSalt);
+        writeBytes(out, user.passwordHash);
+    }
+
+    private static UserL readUser(ByteBuffer in) {
+        return new UserL(readString(in), readString(in), readString(in), readBytes(in), readBytes(in));
+    }
+
+    private static void writeJob(DataOutputStream out, JobPosting job) throws IOException {
+        out.writeLong(job.id);
+        out.writeLong(job.postedDate.getTime());
+        writeString(out, job.title);
+        writeString(out, job.company);
+        writeString(out, job.location);
+        writeString(out, job.description);
+    }
+
+    private static JobPosting readJob(ByteBuffer in) {
+        long id = in.getLong();
+        long posted = in.getLong();
+        JobPosting job = new JobPosting(readString(in), readString(in), readString(in), readString(in));
+        job.id = id;
+        job.postedDate = new Date(posted);
+        return job;
+    }
+}
+
+class LinkedInService {
+    private static LinkedInService instance;
+    private static final Object lock = new Object();
+
+    private final ConcurrentHashMap<String, UserL> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, UserL> usersByEmail = new ConcurrentHashMap<>();
+    private final JobStore jobStore = new JobStore(JobStore.DEFAULT_BUCKET_MILLIS);
+    private final ConcurrentHashMap<String, NotificationInbox> inboxes = new ConcurrentHashMap<>();
+    private final JobTimeline jobTimeline = new JobTimeline(NotificationInbox.DEFAULT_CAPACITY);
+    private final ConnectionGraph connectionGraph = new ConnectionGraph();
+    private final MessageStore messageStore;
+    private final ConnectionRequestStore connectionRequests =
+            new ConnectionRequestStore(connectionGraph, ConnectionRequestStore.DEFAULT_TTL_MILLIS, this::logConnection);
+    // Mutations that get logged hold the read side from logging until they are applied; WAL rotation
+    // and job expiry hold the write side
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final Object snapshotLock = new Object();
+    private volatile LinkedInPersistence persistence;
+    private ScheduledExecutorService persistenceScheduler;
+    static final int DEFAULT_PAGE_SIZE = 20;
+    // Fields: name, email, headline, skills
+    private final SearchIndex<UserL> userIndex = new SearchIndex<>(3, 1, 2, 2);
+    // Fields: title, company, description
+    private final SearchIndex<JobPosting> jobIndex = new SearchIndex<>(3, 2, 1);
+    private final JobRecommender jobRecommender = new JobRecommender();
+
+    private IdGenerator idGenerator = new SnowflakeIdGenerator(0);
+    private PasswordHasher passwordHasher = new PasswordHasher(PasswordHasher.DEFAULT_ITERATIONS);
+    // Hash of a throwaway password, checked when the email is unknown so both paths cost the same
+    private byte[] dummySalt = passwordHasher.newSalt();
+    private byte[] dummyHash = passwordHasher.hash("", dummySalt);
+
+    private LinkedInService (Path messageSpillDirectory, int messageMemoryBudget) {
+        // Private constructor to prevent instantiation
+        this.messageStore = new MessageStore(messageSpillDirectory, messageMemoryBudget);
+    }
+
+    public static LinkedInService getInstance() {
+        synchronized (lock) {
+            if (instance == null) {
+                instance = new LinkedInService(null, MessageStore.DEFAULT_MEMORY_BUDGET);
+            }
+        }
+        return instance;
+    }
+
+    // Creates the instance with message spilling: each conversation keeps at most memoryBudget
+    // messages on the heap and moves older segments to files in directory. Must be the first call.
+    public static LinkedInService getInstance(Path messageSpillDirectory, int messageMemoryBudget) {
+        synchronized (lock) {
+            if (instance != null) {
+                throw new IllegalStateException("LinkedInService already created");
+            }
+            instance = new LinkedInService(messageSpillDirectory, messageMemoryBudget);
+        }
+        return instance;
+    }
+
+    // Only for setting up benchmarks and tests; existing users keep their old hashes
+    void setPasswordHasher(PasswordHasher passwordHasher) {
+        this.passwordHasher = passwordHasher;
+        this.dummySalt = passwordHasher.newSalt();
+        this.dummyHash = passwordHasher.hash("", dummySalt);
+    }
+
+    // Only for tests and multi-node setups that need a distinct node id
+    void setIdGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    static String normalizeEmail(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public UserL registerUser(String id, String name, String email, String password) {
+        byte[] salt = passwordHasher.newSalt();
+        UserL user = new UserL(id, name, email, salt, passwordHasher.hash(password, salt));
+        Lock guard = stateLock.readLock();
+        guard.lock();
+        try {
+            if (usersByEmail.putIfAbsent(normalizeEmail(email), user) != null) {
+                throw new IllegalArgumentException("Email already registered: " + email);
+            }
+            if (persistence != null) {
+                try {
+                    persistence.logRegister(user);
+                } catch (RuntimeException e) {
+                    usersByEmail.remove(normalizeEmail(email), user);
+                    throw e;
+                }
+            }
+            addUser(user);
+        } finally {
+            guard.unlock();
+        }
+        return user;
+    }
+
+    // Expects usersByEmail to already point at user
+    private void addUser(UserL user) {
+        // Only jobs posted after registration show up
+        inboxes.put(user.id, newInbox());
+        UserL previous = users.put(user.id, user);
+        if (previous != null) {
+            usersByEmail.remove(normalizeEmail(previous.email), previous);
+        }
+        indexUser(user);
+    }
+
+    public UserL login(String email, String password) {
+        UserL user = usersByEmail.get(normalizeEmail(email));
+        if (user == null) {
+            passwordHasher.verify(password, dummySalt, dummyHash);
+            return null; // Invalid credentials
+        }
+        return passwordHasher.verify(password, user.passwordSalt, user.passwordHash) ? user : null;
+    }
+
+    public boolean updateEmail(UserL user, String newEmail) {
+        String oldKey = normalizeEmail(user.email);
+        String newKey = normalizeEmail(newEmail);
+        if (!oldKey.equals(newKey) && usersByEmail.putIfAbsent(newKey, user) != null) {
+            return false; // taken by someone else
+        }
+        Lock guard = stateLock.readLock();
+        guard.lock();
+        try {
+            if (persistence != null) {
+                try {
+                    persistence.logEmailChange(user.id, newEmail);
+                } catch (RuntimeException e) {
+                    if (!oldKey.equals(newKey)) {
+                        usersByEmail.remove(newKey, user);
+                    }
+                    throw e;
+                }
+            }
+            user.email = newEmail;
+            if (!oldKey.equals(newKey)) {
+                usersByEmail.remove(oldKey, user);
+            }
+            indexUser(user);
+        } finally {
+            guard.unlock();
+        }
+        return true;
+    }
+
+    private void indexUser(UserL user) {
+        StringBuilder skills = new StringBuilder();
+        for (Skill skill : user.profile.skills) {
+            skills.append(skill.name).append(' ');
+        }
+        userIndex.index(user.id, user, user.name, user.email, user.profile.headline, skills.toString());
+    }
+
+    public void updateProfile(UserL u, Profile p){
+        u.profile = p;
+        indexUser(u);
+        jobRecommender.invalidate(u);
+    }
+
+    public boolean sendConnectionRequest(UserL sender, UserL receiver) {
+        ConnectionRequest request;
+        Lock guard = stateLock.readLock(); // sending back a pending request connects the two
+        guard.lock();
+        try {
+            request = connectionRequests.send(sender, receiver);
+        } finally {
+            guard.unlock();
+        }
+        if (request == null) {
+            return false; // already pending, already connected, or it accepted the receiver's request
+        }
+        addNotification(receiver, new Notification(idGenerator.nextId(), sender, NotificationType.CONNECTION_REQUEST, sender.name + " sent you a connection request."));
+        System.out.println("Connection request sent from " + sender.name + " to " + receiver.name);
+        return true;
+    }
+
+    // Idempotent: accepting an already accepted request reports ACCEPTED again
+    public RequestStatus acceptConnection(UserL sender, UserL receiver) {
+        RequestStatus status;
+        Lock guard = stateLock.readLock();
+        guard.lock();
+        try {
+            status = connectionRequests.accept(sender, receiver);
+        } finally {
+            guard.unlock();
+        }
+        System.out.println(receiver.name + (status == RequestStatus.ACCEPTED ? " is connected with " : " could not accept request from ")
+                + sender.name + " (" + status + ")");
+        return status;
+    }
+
+    public RequestStatus rejectConnection(UserL sender, UserL receiver) {
+        return connectionRequests.reject(sender, receiver);
+    }
+
+    public int acceptAllConnections(UserL receiver) {
+        Lock guard = stateLock.readLock();
+        guard.lock();
+        try {
+            return connectionRequests.acceptAll(receiver);
+        } finally {
+            guard.unlock();
+        }
+    }
+
+    private void logConnection(UserL a, UserL b) {
+        if (persistence != null) {
+            persistence.logConnect(a.id, b.id);
+        }
+    }
+
+    public List<ConnectionRequest> getPendingRequests(UserL receiver) {
+        return connectionRequests.pendingFor(receiver);
+    }
+
+    public int purgeExpiredRequests() {
+        return connectionRequests.purgeExpired();
+    }
+
+    public boolean isConnected(UserL a, UserL b) {
+        return connectionGraph.areConnected(a.id, b.id);
+    }
+
+    public int getConnectionCount(UserL user) {
+        return connectionGraph.degree(user.id);
+    }
+
+    public List<UserL> getConnections(UserL user) {
+        return toUsers(connectionGraph.connections(user.id));
+    }
+
+    // 1, 2 or 3 for first- to third-degree connections, -1 when further apart
+    public int getDegreeOfSeparation(UserL a, UserL b) {
+        return connectionGraph.distance(a.id, b.id);
+    }
+
+    public int getMutualConnectionCount(UserL a, UserL b) {
+        return connectionGraph.mutualCount(a.id, b.id);
+    }
+
+    public List<UserL> getPeopleYouMayKnow(UserL user, int limit) {
+        return toUsers(connectionGraph.suggestions(user.id, limit));
+    }
+
+    private List<UserL> toUsers(List<String> ids) {
+        List<UserL> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            UserL user = users.get(id);
+            if (user != null) {
+                result.add(user);
+            }
+        }
+        return result;
+    }
+
+    public void sendMessage(UserL sender, UserL receiver, String content) {
+        long messageId = idGenerator.nextId();
+        long now = System.currentTimeMillis();
+        Lock guard = stateLock.readLock();
+        guard.lock();
+        try {
+            if (persistence != null) {
+                persistence.logMessage(messageId, now, sender.id, receiver.id, content);
+            }
+            messageStore.append(connectionGraph.nodeId(sender.id), sender, connectionGraph.nodeId(receiver.id), receiver,
+                    messageId, content, now);
+        } finally {
+            guard.unlock();
+        }
+        addNotification(receiver, new Notification(messageId, sender, NotificationType.MESSAGE, content));
+        System.out.println("Message sent from " + sender.name + " to " + receiver.name);
+    }
+
+    public MessagePage getConversation(UserL a, UserL b) {
+        return getConversation(a, b, MessagePage.FIRST_PAGE, DEFAULT_PAGE_SIZE);
+    }
+
+    // Newest first, starting just below cursor (MessagePage.FIRST_PAGE for the latest)
+    public MessagePage getConversation(UserL a, UserL b, long cursor, int limit) {
+        int idA = connectionGraph.findNodeId(a.id), idB = connectionGraph.findNodeId(b.id);
+        if (idA < 0 || idB < 0) {
+            return new MessagePage(new ArrayList<>(), -1); // never messaged anyone
+        }
+        return messageStore.history(idA, idB, cursor, limit);
+    }
+
+    public long getMessageCount(UserL a, UserL b) {
+        int idA = connectionGraph.findNodeId(a.id), idB = connectionGraph.findNodeId(b.id);
+        return idA < 0 || idB < 0 ? 0 : messageStore.count(idA, idB);
+    }
+
+
+    public void postJob(JobPosting jobPosting) {
+        jobPosting.id = idGenerator.nextId();
+        Lock guard = stateLock.readLock();
+        guard.lock();
+        try {
+            if (persistence != null) {
+                persistence.logJob(jobPosting);
+            }
+            addJob(jobPosting);
+        } finally {
+            guard.unlock();
+        }
+        // One shared entry instead of one notification per user; readers merge it in
+        jobTimeline.append(idGenerator, "New job posted: " + jobPosting.title);
+        System.out.println("Job posted: " + jobPosting.title);
+    }
+
+    private void addJob(JobPosting jobPosting) {
+        jobStore.add(jobPosting);
+        jobIndex.index(Long.toString(jobPosting.id), jobPosting, jobPosting.title, jobPosting.company, jobPosting.description);
+        jobRecommender.addJob(jobPosting);
+    }
+
+    public List<JobPosting> getLatestJobs(int limit) {
+        return jobStore.latest(limit);
+    }
+
+    public List<JobPosting> getJobsAtCompany(String company, int limit) {
+        return jobStore.atCompany(company, limit);
+    }
+
+    public List<JobPosting> getJobsInLocation(String location, int limit) {
+        return jobStore.inLocation(location, limit);
+    }
+
+    // Drops postings older than maxAgeMillis (to bucket granularity) from the store, search and recommendations
+    public int expireJobs(long maxAgeMillis) {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        List<JobPosting> expired;
+        // Exclusive, so replaying the cutoff drops exactly the jobs that were posted before it
+        Lock guard = stateLock.writeLock();
+        guard.lock();
+        try {
+            if (persistence != null) {
+                persistence.logJobExpiry(cutoff);
+            }
+            expired = jobStore.expireBefore(cutoff);
+        } finally {
+            guard.unlock();
+        }
+        dropExpired(expired);
+        return expired.size();
+    }
+
+    private void dropExpired(List<JobPosting> expired) {
+        for (JobPosting job : expired) {
+            job.expired = true;
+            jobIndex.remove(Long.toString(job.id));
+        }
+        jobRecommender.removeJobs(expired);
+    }
+
+    public List<UserL> searchUsers(String keyword) {
+        return searchUsers(keyword, 0, DEFAULT_PAGE_SIZE);
+    }
+
+    // Ranked by relevance: name, then headline/skills, then email matches
+    public List<UserL> searchUsers(String keyword, int offset, int limit) {
+        return userIndex.search(keyword, offset, limit);
+    }
+
+    public List<JobPosting> searchJobs(String keyword) {
+        return searchJobs(keyword, 0, DEFAULT_PAGE_SIZE);
+    }
+
+    // Ranked by relevance: title, then company, then description matches
+    public List<JobPosting> searchJobs(String keyword, int offset, int limit) {
+        return jobIndex.search(keyword, offset, limit);
+    }
+
+    // Best matches between the user's skills and job titles/descriptions
+    public List<JobPosting> getRecommendedJobs(UserL user, int limit) {
+        return jobRecommender.recommend(user, limit);
+    }
+
+    // Restores state from directory, then logs every register, email change, connection, message,
+    // job post and job expiry there. A mutation whose record cannot be written throws
+    // UncheckedIOException and is not applied. Call once, before anything else touches the service. Profiles, notifications
+    // and pending connection requests are not persisted.
+    public void enablePersistence(Path directory, long snapshotIntervalMillis) throws IOException {
+        LinkedInPersistence store = new LinkedInPersistence(directory);
+        store.recover(this);
+        persistence = store;
+        persistenceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "linkedin-persistence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        persistenceScheduler.scheduleAtFixedRate(store::sync, 1, 1, TimeUnit.SECONDS);
+        persistenceScheduler.scheduleAtFixedRate(() -> {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                System.err.println("Snapshot failed: " + e.getMessage());
+            }
+        }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Writes a snapshot and trims the WAL. Logged mutations only wait for the WAL rotation; the
+    // snapshot itself is written from the live state.
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            LinkedInPersistence store = persistence;
+            if (store == null) {
+                return;
+            }
+            int covered;
+            long messageMark;
+            Lock guard = stateLock.writeLock();
+            guard.lock();
+            try {
+                covered = store.rotate();
+                messageMark = messageStore.nextMark();
+            } finally {
+                guard.unlock();
+            }
+            store.snapshot(covered, users.values(), connectionGraph, jobStore.all(), messageStore, messageMark);
+        }
+    }
+
+    // Closes persistence and removes spilled message segments
+    public void shutdown() {
+        closePersistence();
+        messageStore.close();
+    }
+
+    public void closePersistence() {
+        if (persistence == null) {
+            return;
+        }
+        persistenceScheduler.shutdownNow();
+        synchronized (snapshotLock) {
+            Lock guard = stateLock.writeLock();
+            guard.lock();
+            try {
+                persistence.close();
+                persistence = null;
+            } finally {
+                guard.unlock();
+            }
+        }
+    }
+
+    // ---- Recovery hooks used by LinkedInPersistence; nothing here is logged again ----
+
+    void restoreNode(String key) {
+        connectionGraph.nodeId(key);
+    }
+
+    // Replay may meet a registration the snapshot already has; the salt tells it apart from a re-registration
+    void restoreUser(UserL user) {
+        UserL existing = users.get(user.id);
+        if (existing != null && Arrays.equals(existing.passwordSalt, user.passwordSalt)) {
+            return;
+        }
+        usersByEmail.put(normalizeEmail(user.email), user);
+        addUser(user);
+    }
+
+    void restoreEmail(String userId, String email) {
+        UserL user = users.get(userId);
+        if (user == null) {
+            System.err.println("Email change for unknown user " + userId);
+            return;
+        }
+        usersByEmail.remove(normalizeEmail(user.email), user);
+        user.email = email;
+        usersByEmail.put(normalizeEmail(email), user);
+        indexUser(user);
+    }
+
+    void restoreEdge(int a, int b) {
+        connectionGraph.addEdge(a, b);
+    }
+
+    void restoreConnection(String a, String b) {
+        connectionGraph.addEdge(a, b);
+    }
+
+    void restoreJob(JobPosting job) {
+        if (!jobStore.contains(job.id)) {
+            addJob(job);
+        }
+    }
+
+    void restoreJobExpiry(long cutoffMillis) {
+        dropExpired(jobStore.expireBefore(cutoffMillis));
+    }
+
+    void restoreMessage(long id, long timestampMillis, int senderNode, int receiverNode, String content) {
+        UserL sender = users.get(connectionGraph.key(senderNode)), receiver = users.get(connectionGraph.key(receiverNode));
+        if (sender == null || receiver == null) {
+            System.err.println("Message " + id + " refers to an unknown user");
+            return;
+        }
+        messageStore.append(senderNode, sender, receiverNode, receiver, id, content, timestampMillis);
+    }
+
+    void restoreMessage(long id, long timestampMillis, String senderId, String receiverId, String content) {
+        restoreMessage(id, timestampMillis, connectionGraph.nodeId(senderId), connectionGraph.nodeId(receiverId), content);
+    }
+
+    public NotificationPage getNotifications(UserL user) {
+        return getNotifications(user, NotificationPage.FIRST_PAGE, DEFAULT_PAGE_SIZE);
+    }
+
+    // Newest first, starting just below cursor (NotificationPage.FIRST_PAGE for the latest)
+    public NotificationPage getNotifications(UserL user, long cursor, int limit) {
+        return inboxFor(user).page(cursor, limit, jobTimeline);
+    }
+
+    public int getUnreadCount(UserL user) {
+        return inboxFor(user).unreadCount(jobTimeline);
+    }
+
+    public int markAsRead(UserL user, long... notificationIds) {
+        return inboxFor(user).markAsRead(jobTimeline, notificationIds);
+    }
+
+    public void markAllAsRead(UserL user) {
+        inboxFor(user).markAllAsRead(jobTimeline);
+    }
+
+    private NotificationInbox inboxFor(UserL user) {
+        return inboxes.computeIfAbsent(user.id, k -> newInbox());
+    }
+
+    private NotificationInbox newInbox() {
+        return new NotificationInbox(NotificationInbox.DEFAULT_CAPACITY, NotificationInbox.DEFAULT_CAPACITY, jobTimeline.size());
+    }
+
+    private void addNotification(UserL user, Notification notification) {
+        inboxFor(user).add(notification);
+    }
+
+}
+
+
+public class LinkedInDemo {
+    public static void main(String[] args) {
+        LinkedInService service = LinkedInService.getInstance();
+
+        UserL alice = service.registerUser("1", "Alice", "alice@pro.com", "pass");
+        UserL bob = service.registerUser("2", "Bob", "bob@pro.com", "pass");
+
+        System.out.println("Login as Bob: " + (service.login("Bob@Pro.com", "pass") == bob));
+        System.out.println("Login with wrong password: " + service.login("bob@pro.com", "nope"));
+
+        service.sendConnectionRequest(alice, bob);
+        service.acceptConnection(alice, bob);
+
+        Profile aliceProfile = new Profile();
+        aliceProfile.headline = "Software Engineer";
+        aliceProfile.skills.add(new Skill("Java"));
+        service.updateProfile(alice, aliceProfile);
+
+        service.postJob(new JobPosting("Java Developer", "Exciting Java role", "Java, Spring", "Remote"));
+        service.sendMessage(alice, bob, "Hi Bob, let’s connect!");
+
+        UserL carol = service.registerUser("3", "Carol", "carol@pro.com", "pass");
+        UserL dave = service.registerUser("4", "Dave", "dave@pro.com", "pass");
+        service.sendConnectionRequest(bob, carol);
+        service.sendConnectionRequest(dave, carol);
+        System.out.println("Carol accepted " + service.acceptAllConnections(carol) + " pending requests");
+        service.acceptConnection(alice, bob); // already connected, still ACCEPTED
+        System.out.println("Alice’s connections: " + service.getConnectionCount(alice));
+        System.out.println("Alice to Carol: degree " + service.getDegreeOfSeparation(alice, carol)
+                + ", mutual " + service.getMutualConnectionCount(alice, carol));
+        for (UserL suggestion : service.getPeopleYouMayKnow(alice, 5)) {
+            System.out.println("Alice may know: " + suggestion.name);
+        }
+        System.out.println("Bob’s messages from Alice: " + service.getMessageCount(alice, bob));
+        System.out.println("Jobs matching ‘Java’: " + service.searchJobs("Java").size());
+        service.postJob(new JobPosting("Python Engineer", "Data Co", "Berlin", "Python and SQL pipelines"));
+        System.out.println("Latest job: " + service.getLatestJobs(1).get(0).title);
+        System.out.println("Jobs in Berlin: " + service.getJobsInLocation("berlin", 10).size());
+        for (JobPosting job : service.getRecommendedJobs(alice, 5)) {
+            System.out.println("Recommended for Alice: " + job.title);
+        }
+        System.out.println("Users matching ‘soft eng’: " + service.searchUsers("soft eng").size());
+        NotificationPage page = service.getNotifications(bob);
+        System.out.println("Notifications for Bob (" + page.unreadCount + " unread):");
+        long[] seen = new long[page.notifications.size()];
+        for (int i = 0; i < seen.length; i++) {
+            Notification n = page.notifications.get(i);
+            System.out.println(" - " + n.content);
+            seen[i] = n.id;
+        }
+        service.markAsRead(bob, seen);
+        System.out.println("Bob’s unread after reading: " + service.getUnreadCount(bob));
+    }
+}
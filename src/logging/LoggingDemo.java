@@ -0,0 +1,2040 @@
+package logging;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+enum LogLevel {
+    DEBUG, INFO, WARNING, ERROR, FATAL
+}
+
+// The text is kept as a "{}" pattern plus arguments and only rendered when an appender asks for it.
+// Structured fields are flat key/value pairs.
+class LogMessage {
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    private final LogLevel level;
+    private final String pattern;
+    private final int argCount;
+    private final Object arg0, arg1, arg2;   // arity 1-3 without a varargs array
+    private final Object[] args;             // only for more arguments
+    private final Object[] fields;           // key0, value0, key1, value1, ...
+    private final long epochNanos;
+    private String rendered;
+    private String fieldText;
+
+    public LogMessage(LogLevel level, String message) {
+        this(level, message, NanoClock.epochNanos());
+    }
+
+    LogMessage(LogLevel level, String message, long epochNanos) {
+        this(level, message, 0, null, null, null, null, NO_FIELDS, epochNanos);
+    }
+
+    LogMessage(LogLevel level, String pattern, int argCount, Object arg0, Object arg1, Object arg2,
+               Object[] args, Object[] fields, long epochNanos) {
+        this.level = level;
+        this.pattern = pattern;
+        this.argCount = argCount;
+        this.arg0 = arg0;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.args = args;
+        this.fields = fields;
+        this.epochNanos = epochNanos;
+    }
+
+    public String format() {
+        return DefaultLayout.INSTANCE.format(this);
+    }
+
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    // Renders the pattern on first use and caches the result
+    public String getMessage() {
+        if (argCount == 0) {
+            return pattern;
+        }
+        String text = rendered;
+        if (text == null) {
+            StringBuilder sb = new StringBuilder(pattern.length() + 16 * argCount);
+            renderTo(sb);
+            rendered = text = sb.toString();
+        }
+        return text;
+    }
+
+    // Appends the rendered text without building an intermediate String
+    public void renderTo(StringBuilder out) {
+        if (argCount == 0 || rendered != null) {
+            out.append(argCount == 0 ? pattern : rendered);
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < argCount; i++) {
+            int placeholder = pattern.indexOf("{}", start);
+            if (placeholder < 0) {
+                break;
+            }
+            out.append(pattern, start, placeholder).append(arg(i));
+            start = placeholder + 2;
+        }
+        out.append(pattern, start, pattern.length());
+    }
+
+    // Called before the message crosses to another thread: renders now if an argument might be
+    // mutated after the log call returns, and freezes mutable field values as strings
+    void snapshotArguments() {
+        if (argCount > 0 && rendered == null) {
+            for (int i = 0; i < argCount; i++) {
+                if (!isImmutable(arg(i))) {
+                    getMessage();
+                    break;
+                }
+            }
+        }
+        for (int i = 1; i < fields.length; i += 2) {
+            if (!isImmutable(fields[i])) {
+                fields[i] = String.valueOf(fields[i]);
+            }
+        }
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value == null || value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Boolean || value instanceof Double || value instanceof Float
+                || value instanceof Short || value instanceof Byte || value instanceof Character;
+    }
+
+    private Object arg(int index) {
+        if (args != null) {
+            return args[index];
+        }
+        return index == 0 ? arg0 : index == 1 ? arg1 : arg2;
+    }
+
+    public int getFieldCount() {
+        return fields.length / 2;
+    }
+
+    public String getFieldKey(int index) {
+        return (String) fields[2 * index];
+    }
+
+    public Object getFieldValue(int index) {
+        return fields[2 * index + 1];
+    }
+
+    // " key=value key=value" for text layouts, empty when there are no fields
+    public String getFieldText() {
+        if (fields.length == 0) {
+            return "";
+        }
+        String text = fieldText;
+        if (text == null) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < fields.length; i += 2) {
+                sb.append(' ').append(fields[i]).append('=').append(fields[i + 1]);
+            }
+            fieldText = text = sb.toString();
+        }
+        return text;
+    }
+
+    // Epoch millis
+    public long getTimestamp() {
+        return epochNanos / 1_000_000L;
+    }
+
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+}
+
+// Wall-clock time with nanosecond resolution and no Instant allocation: System.nanoTime() plus
+// an offset that is re-based whenever it drifts from System.currentTimeMillis()
+final class NanoClock {
+    private static volatile long offset = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
+    private NanoClock() {}
+
+    static long epochNanos() {
+        long nanos = System.nanoTime() + offset;
+        long millis = System.currentTimeMillis();
+        if (Math.abs(nanos / 1_000_000L - millis) > 1) {
+            offset = millis * 1_000_000L - System.nanoTime();
+            nanos = millis * 1_000_000L;
+        }
+        return nanos;
+    }
+}
+
+// Encodes a message into a caller-owned buffer, so appenders never need the String from format()
+interface LogLayout {
+    void encode(LogMessage message, StringBuilder out);
+
+    void encode(LogMessage message, ByteBuffer out);
+
+    // Upper bound of the bytes encode(message, ByteBuffer) will write
+    int maxEncodedLength(LogMessage message);
+
+    default String format(LogMessage message) {
+        StringBuilder sb = new StringBuilder(64 + message.getMessage().length());
+        encode(message, sb);
+        return sb.toString();
+    }
+}
+
+// "[yyyy-MM-dd HH:mm:ss] [LEVEL] message" without SimpleDateFormat or String.format
+class DefaultLayout implements LogLayout {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final byte[][] LEVEL_BYTES = new byte[LogLevel.values().length][];
+    private static final String[] LEVEL_TEXT = new String[LogLevel.values().length];
+
+    static {
+        for (LogLevel level : LogLevel.values()) {
+            LEVEL_TEXT[level.ordinal()] = " [" + level + "] ";
+            LEVEL_BYTES[level.ordinal()] = LEVEL_TEXT[level.ordinal()].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    static final DefaultLayout INSTANCE = new DefaultLayout();
+
+    // "[date]" for one second. Entries are immutable with final fields, so the ring below can be
+    // shared between threads without locks; a racing writer at worst builds one twice.
+    private static final class DatePrefix {
+        final long epochSecond;
+        final String text;
+        final byte[] bytes;
+
+        DatePrefix(long epochSecond) {
+            this.epochSecond = epochSecond;
+            Instant instant = Instant.ofEpochSecond(epochSecond);
+            this.text = "[" + DATE_FORMAT.format(LocalDateTime.ofInstant(instant, ZoneId.systemDefault())) + "]";
+            this.bytes = text.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    // Prefixes of the last PREFIX_RING seconds by second, so an async backlog that drains across
+    // second boundaries reuses them instead of formatting the date again per message
+    private static final int PREFIX_RING = 64;
+    private final DatePrefix[] recentPrefixes = new DatePrefix[PREFIX_RING];
+
+    private DatePrefix prefixFor(long timestamp) {
+        long second = Math.floorDiv(timestamp, 1000L);
+        int slot = (int) Math.floorMod(second, (long) PREFIX_RING);
+        DatePrefix prefix = recentPrefixes[slot];
+        if (prefix == null || prefix.epochSecond != second) {
+            prefix = new DatePrefix(second);
+            recentPrefixes[slot] = prefix;
+        }
+        return prefix;
+    }
+
+    @Override
+    public void encode(LogMessage message, StringBuilder out) {
+        out.append(prefixFor(message.getTimestamp()).text)
+                .append(LEVEL_TEXT[message.getLevel().ordinal()]);
+        message.renderTo(out);
+        out.append(message.getFieldText());
+    }
+
+    @Override
+    public void encode(LogMessage message, ByteBuffer out) {
+        out.put(prefixFor(message.getTimestamp()).bytes)
+                .put(LEVEL_BYTES[message.getLevel().ordinal()]);
+        Utf8.encode(message.getMessage(), out);
+        Utf8.encode(message.getFieldText(), out);
+    }
+
+    @Override
+    public int maxEncodedLength(LogMessage message) {
+        return 32 + Utf8.maxLength(message.getMessage()) + Utf8.maxLength(message.getFieldText());
+    }
+}
+
+// One JSON object per line: {"timestamp":...,"level":"INFO","message":"...", <fields>}
+class JsonLayout implements LogLayout {
+    // Appenders call maxEncodedLength and then encode for the same message on the same thread;
+    // the line rendered for the first call is kept for the second
+    private static final class Scratch {
+        final StringBuilder text = new StringBuilder(256);
+        LogMessage message;
+    }
+
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    @Override
+    public void encode(LogMessage message, StringBuilder out) {
+        out.append("{\"timestamp\":").append(message.getTimestamp())
+                .append(",\"level\":\"").append(message.getLevel().name())
+                .append("\",\"message\":\"");
+        int start = out.length();
+        message.renderTo(out);
+        escapeFrom(out, start);
+        out.append('"');
+        for (int i = 0; i < message.getFieldCount(); i++) {
+            out.append(",\"");
+            start = out.length();
+            out.append(message.getFieldKey(i));
+            escapeFrom(out, start);
+            out.append("\":");
+            Object value = message.getFieldValue(i);
+            if (value == null || value instanceof Number || value instanceof Boolean) {
+                out.append(value);
+            } else {
+                out.append('"');
+                start = out.length();
+                out.append(value);
+                escapeFrom(out, start);
+                out.append('"');
+            }
+        }
+        out.append('}');
+    }
+
+    @Override
+    public void encode(LogMessage message, ByteBuffer out) {
+        Scratch current = render(message);
+        Utf8.encode(current.text, out);
+        current.message = null;
+    }
+
+    @Override
+    public int maxEncodedLength(LogMessage message) {
+        return Utf8.maxLength(render(message).text);
+    }
+
+    private Scratch render(LogMessage message) {
+        Scratch current = scratch.get();
+        if (current.message != message) {
+            current.text.setLength(0);
+            encode(message, current.text);
+            current.message = message;
+        }
+        return current;
+    }
+
+    // Escapes, in place, everything appended after start
+    private static void escapeFrom(StringBuilder sb, int start) {
+        for (int i = start; i < sb.length(); i++) {
+            char c = sb.charAt(i);
+            String replacement;
+            switch (c) {
+                case '"': replacement = "\\\""; break;
+                case '\\': replacement = "\\\\"; break;
+                case '\n': replacement = "\\n"; break;
+                case '\r': replacement = "\\r"; break;
+                case '\t': replacement = "\\t"; break;
+                default:
+                    if (c >= 0x20) {
+                        continue;
+                    }
+                    replacement = String.format("\\u%04x", (int) c);
+            }
+            sb.replace(i, i + 1, replacement);
+            i += replacement.length() - 1;
+        }
+    }
+}
+
+// Collects structured fields for one message; Logger hands out a no-op instance for disabled levels
+class LogEventBuilder {
+    static final LogEventBuilder DISABLED = new LogEventBuilder(null, null);
+
+    private final Logger logger;
+    private final LogLevel level;
+    private Object[] fields = new Object[8];
+    private int size = 0;
+
+    LogEventBuilder(Logger logger, LogLevel level) {
+        this.logger = logger;
+        this.level = level;
+    }
+
+    public LogEventBuilder with(String key, Object value) {
+        if (logger == null) {
+            return this;
+        }
+        if (size + 2 > fields.length) {
+            fields = Arrays.copyOf(fields, fields.length * 2);
+        }
+        fields[size++] = key;
+        fields[size++] = value;
+        return this;
+    }
+
+    public void log(String message) {
+        emit(message, 0, null, null, null, null);
+    }
+    public void log(String pattern, Object arg) {
+        emit(pattern, 1, arg, null, null, null);
+    }
+    public void log(String pattern, Object arg0, Object arg1) {
+        emit(pattern, 2, arg0, arg1, null, null);
+    }
+    public void log(String pattern, Object... args) {
+        emit(pattern, args.length, null, null, null, args);
+    }
+
+    private void emit(String pattern, int argCount, Object arg0, Object arg1, Object arg2, Object[] args) {
+        if (logger == null) {
+            return;
+        }
+        logger.logMessage(new LogMessage(level, pattern, argCount, arg0, arg1, arg2, args,
+                Arrays.copyOf(fields, size), NanoClock.epochNanos()));
+    }
+}
+
+// Char-by-char UTF-8 encoding straight into a ByteBuffer, without String.getBytes
+final class Utf8 {
+    private Utf8() {}
+
+    static int maxLength(CharSequence text) {
+        return text.length() * 3;
+    }
+
+    static void encode(CharSequence text, ByteBuffer out) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?'); // unpaired surrogate
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
+
+// Immutable snapshot: Logger swaps whole configs instead of mutating a shared one
+final class LogConfig {
+    private final LogLevel level;
+    private final LogAppender appender;
+
+    public LogConfig (LogLevel level, LogAppender appender) {
+        this.level = level;
+        this.appender = appender;
+    }
+
+    public LogLevel getLevel() {
+        return level;
+    }
+    public LogConfig withLevel(LogLevel level) {
+        return new LogConfig(level, appender);
+    }
+    public LogAppender getAppender() {
+        return appender;
+    }
+    public LogConfig withAppender(LogAppender appender) {
+        return new LogConfig(level, appender);
+    }
+
+    public boolean isEnabled(LogLevel level) {
+        return level.ordinal() >= this.level.ordinal();
+    }
+}
+
+interface LogAppender {
+    void append(LogMessage message);
+
+    // Pushes out anything the appender has buffered
+    default void flush() {}
+
+    default void close() {}
+}
+
+class ConsoleAppender implements LogAppender {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final LogLayout layout;
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    public ConsoleAppender() {
+        this(DefaultLayout.INSTANCE);
+    }
+
+    public ConsoleAppender(LogLayout layout) {
+        this.layout = layout;
+    }
+
+    @Override
+    public synchronized void append(LogMessage message) {
+        int length = layout.maxEncodedLength(message) + LINE_SEPARATOR.length;
+        if (length > buffer.capacity()) {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        layout.encode(message, buffer);
+        buffer.put(LINE_SEPARATOR);
+        System.out.write(buffer.array(), 0, buffer.position());
+        System.out.flush();
+    }
+}
+
+// How hard FileAppender pushes written batches to the disk
+enum DurabilityPolicy {
+    NONE,           // leave it to the OS page cache
+    PERIODIC,       // force() at most once per force interval
+    EVERY_BATCH     // force() after every batch write
+}
+
+class FileAppender implements LogAppender {
+    static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+    static final long DEFAULT_FLUSH_INTERVAL_MS = 200;
+    static final long DEFAULT_FORCE_INTERVAL_MS = 1000;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final Set<FileAppender> openAppenders = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "log-file-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        // Batches still in memory at exit would otherwise be lost
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (FileAppender appender : openAppenders) {
+                appender.close();
+            }
+        }, "log-file-shutdown"));
+    }
+
+    private final String filePath;
+    private final LogLayout layout;
+    private final DurabilityPolicy durability;
+    private final long flushIntervalMillis;
+    private final long forceIntervalMillis;
+    private final ByteBuffer batch;
+    private final ScheduledFuture<?> timer;
+
+    private FileChannel channel;
+    private long lastWriteMillis = System.currentTimeMillis();
+    private long lastForceMillis = System.currentTimeMillis();
+    private boolean unforced = false;
+    private boolean closed = false;
+
+    public FileAppender(String filePath) {
+        this(filePath, DEFAULT_BATCH_BYTES, DEFAULT_FLUSH_INTERVAL_MS, DurabilityPolicy.NONE, DEFAULT_FORCE_INTERVAL_MS);
+    }
+
+    public FileAppender(String filePath, int batchBytes, long flushIntervalMillis, DurabilityPolicy durability) {
+        this(filePath, batchBytes, flushIntervalMillis, durability, DEFAULT_FORCE_INTERVAL_MS);
+    }
+
+    public FileAppender(String filePath, int batchBytes, long flushIntervalMillis,
+                        DurabilityPolicy durability, long forceIntervalMillis) {
+        this(filePath, DefaultLayout.INSTANCE, batchBytes, flushIntervalMillis, durability, forceIntervalMillis);
+    }
+
+    public FileAppender(String filePath, LogLayout layout, int batchBytes, long flushIntervalMillis,
+                        DurabilityPolicy durability, long forceIntervalMillis) {
+        this.filePath = filePath;
+        this.layout = layout;
+        this.durability = durability;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.forceIntervalMillis = forceIntervalMillis;
+        this.batch = ByteBuffer.allocateDirect(batchBytes);
+        openAppenders.add(this);
+        long period = Math.max(1, Math.min(flushIntervalMillis, forceIntervalMillis));
+        this.timer = flusher.scheduleAtFixedRate(this::onTimer, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void append(LogMessage message) {
+        if (closed) {
+            return;
+        }
+        int length = layout.maxEncodedLength(message) + LINE_SEPARATOR.length;
+        if (length > batch.remaining()) {
+            writeBatch(); // size threshold reached
+        }
+        if (length > batch.capacity()) {
+            ByteBuffer oversized = ByteBuffer.allocate(length);
+            layout.encode(message, oversized);
+            oversized.put(LINE_SEPARATOR).flip();
+            write(oversized);
+            afterWrite();
+            return;
+        }
+        layout.encode(message, batch);
+        batch.put(LINE_SEPARATOR);
+    }
+
+    private void onTimer() {
+        FileChannel toForce = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (batch.position() > 0 && now - lastWriteMillis >= flushIntervalMillis) {
+                writeBatch();
+            }
+            if (durability == DurabilityPolicy.PERIODIC && unforced && channel != null
+                    && now - lastForceMillis >= forceIntervalMillis) {
+                toForce = channel;
+                unforced = false; // anything written from here on marks the file dirty again
+                lastForceMillis = now;
+            }
+        }
+        if (toForce == null) {
+            return;
+        }
+        // The fsync runs outside the lock, so appends keep filling the batch meanwhile
+        try {
+            toForce.force(false);
+        } catch (ClosedChannelException e) {
+            // Rolled or closed meanwhile; closeChannel() syncs before closing
+        } catch (IOException e) {
+            System.err.println("Failed to sync log file: " + e.getMessage());
+            synchronized (this) {
+                unforced = true;
+            }
+        }
+    }
+
+    private void writeBatch() {
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.flip();
+        write(batch);
+        batch.clear();
+        afterWrite();
+    }
+
+    // Called under the appender lock right before bytes hit the file; subclasses may roll here
+    protected void beforeWrite(long bytes) {}
+
+    protected final String getFilePath() {
+        return filePath;
+    }
+
+    // Closes the current file; the next write reopens filePath
+    protected final void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        unforced = true; // the timer may have cleared the flag for a sync that is still running
+        force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close log file: " + e.getMessage());
+        }
+        channel = null;
+        unforced = false;
+    }
+
+    private void write(ByteBuffer buffer) {
+        beforeWrite(buffer.remaining());
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(Paths.get(filePath),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            unforced = true;
+        } catch (IOException e) {
+            System.err.println("Failed to write log to file: " + e.getMessage());
+        }
+    }
+
+    private void afterWrite() {
+        lastWriteMillis = System.currentTimeMillis();
+        if (durability == DurabilityPolicy.EVERY_BATCH) {
+            force();
+        }
+    }
+
+    private void force() {
+        if (channel == null || !unforced) {
+            return;
+        }
+        try {
+            channel.force(false);
+            unforced = false;
+            lastForceMillis = System.currentTimeMillis();
+        } catch (IOException e) {
+            System.err.println("Failed to sync log file: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (closed) {
+            return;
+        }
+        writeBatch();
+        if (durability != DurabilityPolicy.NONE) {
+            force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        timer.cancel(false);
+        openAppenders.remove(this);
+        closeChannel();
+    }
+}
+
+// Rolls the file by size and by time window; rolled segments are gzipped and pruned
+// on a background thread so the logging path only pays for a rename.
+class RollingFileAppender extends FileAppender {
+    private static final DateTimeFormatter ROLL_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    // "<timestamp>-<seq>", gzipped or left raw when compression failed
+    private static final Pattern ROLLED_SUFFIX = Pattern.compile("\\d{8}-\\d{6}-\\d+(\\.gz)?");
+    private static final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "log-compressor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long maxFileBytes;
+    private final long rollIntervalMillis; // <= 0 for no time-based rolling
+    private final int maxFiles;          // retention cap on rolled segments, <= 0 for unlimited
+    private final long maxTotalBytes;    // retention cap on rolled bytes, <= 0 for unlimited
+
+    private long currentBytes;
+    private long windowEnd;
+    private int rollSequence = 0;
+
+    public RollingFileAppender(String filePath, long maxFileBytes, long rollIntervalMillis,
+                               int maxFiles, long maxTotalBytes) {
+        this(filePath, DefaultLayout.INSTANCE, DEFAULT_BATCH_BYTES, DEFAULT_FLUSH_INTERVAL_MS, DurabilityPolicy.NONE,
+                DEFAULT_FORCE_INTERVAL_MS, maxFileBytes, rollIntervalMillis, maxFiles, maxTotalBytes);
+    }
+
+    public RollingFileAppender(String filePath, LogLayout layout, int batchBytes, long flushIntervalMillis,
+                               DurabilityPolicy durability, long forceIntervalMillis,
+                               long maxFileBytes, long rollIntervalMillis, int maxFiles, long maxTotalBytes) {
+        super(filePath, layout, batchBytes, flushIntervalMillis, durability, forceIntervalMillis);
+        this.maxFileBytes = maxFileBytes;
+        this.rollIntervalMillis = rollIntervalMillis;
+        this.maxFiles = maxFiles;
+        this.maxTotalBytes = maxTotalBytes;
+        Path path = Paths.get(filePath);
+        try {
+            this.currentBytes = Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException e) {
+            this.currentBytes = 0;
+        }
+        this.windowEnd = nextWindowEnd(System.currentTimeMillis());
+    }
+
+    private long nextWindowEnd(long now) {
+        if (rollIntervalMillis <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return (Math.floorDiv(now, rollIntervalMillis) + 1) * rollIntervalMillis;
+    }
+
+    @Override
+    protected void beforeWrite(long bytes) {
+        long now = System.currentTimeMillis();
+        if (currentBytes > 0 && (currentBytes + bytes > maxFileBytes || now >= windowEnd)) {
+            roll(now);
+        }
+        if (now >= windowEnd) {
+            windowEnd = nextWindowEnd(now);
+        }
+        currentBytes += bytes;
+    }
+
+    private void roll(long now) {
+        closeChannel();
+        Path active = Paths.get(getFilePath());
+        String suffix = ROLL_SUFFIX.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault()));
+        // The sequence restarts with the JVM, so skip names a run in the same second already used
+        Path rolled;
+        do {
+            rolled = active.resolveSibling(active.getFileName() + "." + suffix + "-" + (rollSequence++));
+        } while (Files.exists(rolled) || Files.exists(rolled.resolveSibling(rolled.getFileName() + ".gz")));
+        try {
+            Files.move(active, rolled);
+        } catch (IOException e) {
+            System.err.println("Failed to roll log file: " + e.getMessage());
+            return;
+        }
+        currentBytes = 0;
+        Path segment = rolled;
+        compressor.submit(() -> {
+            compress(segment);
+            enforceRetention(active);
+        });
+    }
+
+    private static void compress(Path rolled) {
+        if (!Files.exists(rolled)) {
+            return; // already pruned by retention
+        }
+        Path tmp = rolled.resolveSibling(rolled.getFileName() + ".gz.tmp");
+        Path target = rolled.resolveSibling(rolled.getFileName() + ".gz");
+        if (Files.exists(target)) {
+            System.err.println("Not compressing " + rolled + ": " + target + " already exists");
+            return; // never replace an older segment; the raw file still counts for retention
+        }
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                Files.copy(rolled, out);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(rolled);
+        } catch (IOException e) {
+            System.err.println("Failed to compress rolled log " + rolled + ": " + e.getMessage());
+        }
+    }
+
+    private void enforceRetention(Path active) {
+        if (maxFiles <= 0 && maxTotalBytes <= 0) {
+            return;
+        }
+        Path dir = active.toAbsolutePath().getParent();
+        String prefix = active.getFileName() + ".";
+        List<Path> segments = new ArrayList<>();
+        // Segments that failed to compress stay raw but still count against the caps
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path segment : stream) {
+                if (ROLLED_SUFFIX.matcher(segment.getFileName().toString().substring(prefix.length())).matches()) {
+                    segments.add(segment);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list rolled logs: " + e.getMessage());
+            return;
+        }
+        // Roll suffixes sort chronologically, newest last
+        segments.sort(Comparator.comparing(p -> p.getFileName().toString(), RollingFileAppender::compareSegments));
+        long totalBytes = 0;
+        for (Path segment : segments) {
+            totalBytes += sizeOf(segment);
+        }
+        int count = segments.size();
+        for (Path oldest : segments) {
+            if ((maxFiles <= 0 || count <= maxFiles) && (maxTotalBytes <= 0 || totalBytes <= maxTotalBytes)) {
+                break;
+            }
+            long size = sizeOf(oldest);
+            try {
+                Files.deleteIfExists(oldest);
+                count--;
+                totalBytes -= size;
+            } catch (IOException e) {
+                System.err.println("Failed to delete rolled log " + oldest + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // "<name>.<timestamp>-<seq>[.gz]": order by timestamp, then numerically by sequence
+    private static int compareSegments(String a, String b) {
+        int dashA = a.lastIndexOf('-');
+        int dashB = b.lastIndexOf('-');
+        int byTime = a.substring(0, dashA).compareTo(b.substring(0, dashB));
+        if (byTime != 0) {
+            return byTime;
+        }
+        return Long.compare(sequenceOf(a, dashA), sequenceOf(b, dashB));
+    }
+
+    private static long sequenceOf(String name, int dash) {
+        try {
+            int end = name.endsWith(".gz") ? name.length() - ".gz".length() : name.length();
+            return Long.parseLong(name.substring(dash + 1, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
+
+// Buffers messages and writes them with multi-row INSERTs from a background writer thread.
+// Failed batches are retried with exponential backoff, then spilled to a local file.
+class DatabaseAppender implements LogAppender {
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final long DEFAULT_LINGER_MS = 500;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 5000;
+    static final int MESSAGE_COLUMN_CHARS = 4096;
+
+    private final String connectionString;
+    private final String table;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final BlockingQueue<LogMessage> pending;
+    private final FileAppender spill;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Map<Integer, String> insertSql = new HashMap<>(); // writer thread only
+    private final Thread writer;
+
+    private Connection connection;
+    private long unavailableUntil = 0;
+    private volatile boolean running = true;
+
+    public DatabaseAppender(String connectionString) {
+        this(connectionString, "logs", DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MS, "db-spill.log");
+    }
+
+    public DatabaseAppender(String connectionString, String table, int batchSize, long lingerMillis, String spillPath) {
+        this.connectionString = connectionString;
+        this.table = table;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.pending = new LinkedBlockingQueue<>(batchSize * 100);
+        this.spill = new FileAppender(spillPath);
+        this.writer = new Thread(this::writeLoop, "log-db-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void append(LogMessage message) {
+        message.snapshotArguments(); // the writer thread renders it later
+        if (running && pending.offer(message)) {
+            outstanding.incrementAndGet();
+            if (!running) {
+                spillStranded(); // close() raced the offer, so the writer may have exited already
+            }
+        } else {
+            spill.append(message); // writer is behind or closed: never block the caller on the database
+        }
+    }
+
+    // Waits for the writer to exit, then spills whatever it left in the queue
+    private void spillStranded() {
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return; // close() spills the rest
+        }
+        List<LogMessage> stranded = new ArrayList<>();
+        pending.drainTo(stranded);
+        if (!stranded.isEmpty()) {
+            spillBatch(stranded);
+            outstanding.addAndGet(-stranded.size());
+        }
+    }
+
+    private void writeLoop() {
+        List<LogMessage> batch = new ArrayList<>(batchSize);
+        while (running || !pending.isEmpty()) {
+            try {
+                LogMessage first = pending.poll(lingerMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Linger so a burst turns into one batch instead of many single-row inserts
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while (batch.size() < batchSize) {
+                    if (pending.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    LogMessage next = remaining > 0 ? pending.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                outstanding.addAndGet(-batch.size());
+                batch.clear();
+            }
+        }
+        closeConnection();
+    }
+
+    private void writeBatch(List<LogMessage> batch) {
+        if (System.currentTimeMillis() < unavailableUntil) {
+            spillBatch(batch);
+            return;
+        }
+        long backoff = INITIAL_BACKOFF_MS;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                insert(batch);
+                return;
+            } catch (SQLException e) {
+                closeConnection();
+                if (attempt == MAX_ATTEMPTS) {
+                    System.err.println("Database logging unavailable, spilling to file: " + e.getMessage());
+                    break;
+                }
+                sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+        // Skip the database for a while instead of paying the full backoff on every batch
+        unavailableUntil = System.currentTimeMillis() + MAX_BACKOFF_MS;
+        spillBatch(batch);
+    }
+
+    private void insert(List<LogMessage> batch) throws SQLException {
+        Connection conn = connect();
+        try (PreparedStatement ps = conn.prepareStatement(insertSqlFor(batch.size()))) {
+            int param = 1;
+            for (LogMessage message : batch) {
+                ps.setTimestamp(param++, new Timestamp(message.getTimestamp()));
+                ps.setString(param++, message.getLevel().name());
+                // One over-long line must not fail the whole batch
+                ps.setString(param++, truncate(message.getMessage(), MESSAGE_COLUMN_CHARS));
+            }
+            ps.executeUpdate();
+        }
+        if (!conn.getAutoCommit()) {
+            conn.commit();
+        }
+    }
+
+    static String truncate(String text, int maxChars) {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+        int end = Character.isHighSurrogate(text.charAt(maxChars - 1)) ? maxChars - 1 : maxChars;
+        return text.substring(0, end);
+    }
+
+    private String insertSqlFor(int rows) {
+        return insertSql.computeIfAbsent(rows, n -> {
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (log_time, level, message) VALUES ");
+            for (int i = 0; i < n; i++) {
+                sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+            }
+            return sql.toString();
+        });
+    }
+
+    private Connection connect() throws SQLException {
+        if (connection == null) {
+            connection = DriverManager.getConnection(connectionString);
+            try (Statement st = connection.createStatement()) {
+                st.execute("CREATE TABLE IF NOT EXISTS " + table
+                        + " (log_time TIMESTAMP, level VARCHAR(16), message VARCHAR(" + MESSAGE_COLUMN_CHARS + "))");
+            }
+        }
+        return connection;
+    }
+
+    private void closeConnection() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Already broken, nothing left to release
+        }
+        connection = null;
+    }
+
+    private void spillBatch(List<LogMessage> batch) {
+        for (LogMessage message : batch) {
+            spill.append(message);
+        }
+        spill.flush();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Waits until everything appended so far has been inserted or spilled
+    @Override
+    public void flush() {
+        while (outstanding.get() > 0 && writer.isAlive()) {
+            sleep(5);
+        }
+        spill.flush();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        spillStranded();
+        spill.close();
+    }
+}
+
+// Binary journal in pre-allocated memory-mapped segments. One record per message:
+// [long epochNanos][byte level ordinal][int length][length bytes of UTF-8 text].
+// A zero timestamp marks the unused tail of a segment. Read back with JournalDecoder.
+class JournalAppender implements LogAppender {
+    static final int RECORD_HEADER_BYTES = Long.BYTES + 1 + Integer.BYTES;
+    static final String SEGMENT_SUFFIX = ".journal";
+    private static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private final Path directory;
+    private final String baseName;
+    private final int segmentBytes;
+
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+
+    public JournalAppender(String directory, String baseName) {
+        this(directory, baseName, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public JournalAppender(String directory, String baseName, int segmentBytes) {
+        this.directory = Paths.get(directory);
+        this.baseName = baseName;
+        this.segmentBytes = segmentBytes;
+        this.segmentIndex = lastSegmentIndex(this.directory, baseName); // never reuse an existing segment
+    }
+
+    static String segmentName(String baseName, int index) {
+        return String.format("%s-%06d%s", baseName, index, SEGMENT_SUFFIX);
+    }
+
+    private static int lastSegmentIndex(Path directory, String baseName) {
+        int last = -1;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, baseName + "-*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    int index = Integer.parseInt(name.substring(baseName.length() + 1, name.length() - SEGMENT_SUFFIX.length()));
+                    last = Math.max(last, index);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        } catch (IOException e) {
+            // Directory does not exist yet
+        }
+        return last;
+    }
+
+    @Override
+    public synchronized void append(LogMessage message) {
+        String text = message.getMessage();
+        int maxBytes = Utf8.maxLength(text);
+        int limit = segmentBytes - RECORD_HEADER_BYTES;
+        if (maxBytes > limit) {
+            text = truncate(text, limit);
+            maxBytes = Utf8.maxLength(text);
+        }
+        if (segment == null || segment.remaining() < RECORD_HEADER_BYTES + maxBytes) {
+            if (!nextSegment()) {
+                return;
+            }
+        }
+        int start = segment.position();
+        segment.position(start + RECORD_HEADER_BYTES);
+        Utf8.encode(text, segment);
+        int length = segment.position() - start - RECORD_HEADER_BYTES;
+        // Timestamp goes in last: a non-zero timestamp is what makes the record visible to readers
+        segment.put(start + Long.BYTES, (byte) message.getLevel().ordinal());
+        segment.putInt(start + Long.BYTES + 1, length);
+        segment.putLong(start, message.getEpochNanos());
+    }
+
+    private static String truncate(String text, int maxBytes) {
+        int chars = maxBytes / 3;
+        if (chars > 0 && Character.isHighSurrogate(text.charAt(chars - 1))) {
+            chars--;
+        }
+        return text.substring(0, chars);
+    }
+
+    private boolean nextSegment() {
+        if (segment != null) {
+            segment.force();
+        }
+        segmentIndex++;
+        Path path = directory.resolve(segmentName(baseName, segmentIndex));
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping stays valid after the channel is closed
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to open journal segment " + path + ": " + e.getMessage());
+            segment = null;
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        segment = null;
+    }
+}
+
+// Streams journal segments back out in the regular text format:
+//   java logging.JournalDecoder <segment-or-directory>...
+class JournalDecoder {
+    private final LogLayout layout;
+
+    public JournalDecoder(LogLayout layout) {
+        this.layout = layout;
+    }
+
+    public void decode(Path segment, PrintStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            LogLevel[] levels = LogLevel.values();
+            StringBuilder line = new StringBuilder(256);
+            byte[] text = new byte[256];
+            while (buffer.remaining() >= JournalAppender.RECORD_HEADER_BYTES) {
+                long epochNanos = buffer.getLong();
+                int level = buffer.get();
+                int length = buffer.getInt();
+                if (epochNanos == 0 || level < 0 || level >= levels.length || length < 0 || length > buffer.remaining()) {
+                    break; // unused tail, or a record cut off mid-write
+                }
+                if (length > text.length) {
+                    text = new byte[Math.max(length, text.length * 2)];
+                }
+                buffer.get(text, 0, length);
+                LogMessage message = new LogMessage(levels[level], new String(text, 0, length, StandardCharsets.UTF_8), epochNanos);
+                line.setLength(0);
+                layout.encode(message, line);
+                out.println(line);
+            }
+        }
+    }
+
+    // Segments of a directory in write order
+    public static List<Path> segments(Path directory) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + JournalAppender.SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                result.add(path);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        JournalDecoder decoder = new JournalDecoder(DefaultLayout.INSTANCE);
+        for (String arg : args) {
+            Path path = Paths.get(arg);
+            for (Path segment : Files.isDirectory(path) ? segments(path) : Collections.singletonList(path)) {
+                decoder.decode(segment, System.out);
+            }
+        }
+    }
+}
+
+// What a full ring buffer does with a new message
+enum OverflowPolicy {
+    BLOCK,              // wait for the consumer to free a slot
+    DROP_OLDEST,        // evict the oldest queued message to make room
+    DROP_BELOW_LEVEL    // drop messages below the threshold level, block for the rest
+}
+
+// Mutable slot copy handed to the consumer, so polling allocates nothing
+class LogEvent {
+    LogMessage message;
+    LogAppender appender;
+
+    void clear() {
+        message = null;
+        appender = null;
+    }
+}
+
+// Bounded lock-free multi-producer queue (Vyukov style): every slot carries a sequence
+// number that tells producers when it is free and consumers when it is published.
+class LogRingBuffer {
+    private final int mask;
+    private final LogMessage[] messages;
+    private final LogAppender[] appenders;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    public LogRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.messages = new LogMessage[capacity];
+        this.appenders = new LogAppender[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public boolean offer(LogMessage message, LogAppender appender) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    messages[index] = message;
+                    appenders[index] = appender;
+                    sequences.set(index, pos + 1); // publish
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; // full
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    // Takes the oldest published message; pass null to just discard it
+    public boolean poll(LogEvent out) {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    if (out != null) {
+                        out.message = messages[index];
+                        out.appender = appenders[index];
+                    }
+                    messages[index] = null;
+                    appenders[index] = null;
+                    sequences.set(index, pos + mask + 1); // hand the slot back to producers
+                    return true;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return false; // empty, or the next slot is claimed but not yet published
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    public long claimed() {
+        return tail.get();
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
+
+// Owns the ring buffer and the single consumer thread that drains it into the appenders
+class AsyncLogDispatcher {
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+    private static final long FULL_PARK_NANOS = 10_000L;
+
+    private final LogRingBuffer buffer;
+    private final OverflowPolicy policy;
+    private final LogLevel dropThreshold;
+    private final Thread consumer;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicLong completed = new AtomicLong(); // appended or evicted
+
+    private volatile boolean closed = false;
+    private volatile boolean consumerParked = false;
+    private volatile RuntimeException lastFailure;
+    private volatile long lastFailureMillis;
+
+    public AsyncLogDispatcher(int capacity, OverflowPolicy policy, LogLevel dropThreshold) {
+        this(capacity, policy, dropThreshold, "log-dispatcher");
+    }
+
+    public AsyncLogDispatcher(int capacity, OverflowPolicy policy, LogLevel dropThreshold, String threadName) {
+        this.buffer = new LogRingBuffer(capacity);
+        this.policy = policy;
+        this.dropThreshold = dropThreshold;
+        this.consumer = new Thread(this::drainLoop, threadName);
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    public AsyncLogDispatcher(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, LogLevel.WARNING);
+    }
+
+    // Returns false only when the dispatcher is shut down; dropped messages count as handled
+    public boolean publish(LogMessage message, LogAppender appender) {
+        if (closed) {
+            return false;
+        }
+        message.snapshotArguments(); // the consumer renders after the caller has moved on
+        while (!buffer.offer(message, appender)) {
+            switch (policy) {
+                case DROP_OLDEST:
+                    if (buffer.poll(null)) {
+                        dropped.increment();
+                        completed.incrementAndGet();
+                    }
+                    break;
+                case DROP_BELOW_LEVEL:
+                    if (message.getLevel().ordinal() < dropThreshold.ordinal()) {
+                        dropped.increment();
+                        return true;
+                    }
+                    waitForSpace();
+                    break;
+                default:
+                    waitForSpace();
+            }
+            if (closed) {
+                return false;
+            }
+        }
+        queued.increment();
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        if (closed) {
+            deliverStranded();
+        }
+        return true;
+    }
+
+    // shutdown() may have let the consumer see an empty buffer and exit just before our offer
+    // landed. Wait for it to finish, then deliver whatever it left behind on this thread.
+    private void deliverStranded() {
+        if (Thread.currentThread() == consumer) {
+            return; // the consumer's own loop still owns the message
+        }
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        LogEvent event = new LogEvent();
+        while (buffer.poll(event)) {
+            deliver(event);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitForSpace() {
+        LockSupport.unpark(consumer);
+        LockSupport.parkNanos(this, FULL_PARK_NANOS);
+    }
+
+    private void drainLoop() {
+        LogEvent event = new LogEvent();
+        while (true) {
+            if (buffer.poll(event)) {
+                deliver(event);
+            } else if (closed && completed.get() >= buffer.claimed()) {
+                return;
+            } else {
+                consumerParked = true;
+                if (buffer.size() == 0) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    private void deliver(LogEvent event) {
+        try {
+            event.appender.append(event.message);
+        } catch (RuntimeException e) {
+            failed.increment();
+            lastFailure = e;
+            lastFailureMillis = System.currentTimeMillis();
+        } finally {
+            event.clear();
+            completed.incrementAndGet();
+        }
+    }
+
+    // Blocks until everything published before this call has reached its appender
+    public void flush() {
+        long target = buffer.claimed();
+        while (completed.get() < target && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+    }
+
+    // Stops accepting messages, drains what is queued and waits for the consumer to exit
+    public void shutdown() throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(consumer);
+        consumer.join();
+    }
+
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public int getBacklog() {
+        return buffer.size();
+    }
+
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    public long getLastFailureMillis() {
+        return lastFailureMillis;
+    }
+}
+
+// Fans each message out to several appenders. Every target has its own minimum level and its
+// own dispatcher thread, so a slow sink only backs up its own queue.
+class CompositeAppender implements LogAppender {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final long UNHEALTHY_WINDOW_MS = 30_000;
+
+    static final class Target {
+        private final LogAppender appender;
+        private final LogLevel minLevel;
+        private final AsyncLogDispatcher dispatcher;
+
+        Target(LogAppender appender, LogLevel minLevel, AsyncLogDispatcher dispatcher) {
+            this.appender = appender;
+            this.minLevel = minLevel;
+            this.dispatcher = dispatcher;
+        }
+
+        public LogAppender getAppender() {
+            return appender;
+        }
+        public LogLevel getMinLevel() {
+            return minLevel;
+        }
+        public int getBacklog() {
+            return dispatcher.getBacklog();
+        }
+        public long getQueuedCount() {
+            return dispatcher.getQueuedCount();
+        }
+        public long getDroppedCount() {
+            return dispatcher.getDroppedCount();
+        }
+        public long getFailedCount() {
+            return dispatcher.getFailedCount();
+        }
+        public RuntimeException getLastFailure() {
+            return dispatcher.getLastFailure();
+        }
+
+        // Unhealthy while the appender has thrown recently or the queue is nearly full
+        public boolean isHealthy() {
+            boolean recentFailure = dispatcher.getLastFailure() != null
+                    && System.currentTimeMillis() - dispatcher.getLastFailureMillis() < UNHEALTHY_WINDOW_MS;
+            return !recentFailure && dispatcher.getBacklog() < dispatcher.getCapacity() * 9 / 10;
+        }
+
+        @Override
+        public String toString() {
+            return appender.getClass().getSimpleName() + "[" + minLevel + "] backlog=" + getBacklog()
+                    + " queued=" + getQueuedCount() + " dropped=" + getDroppedCount()
+                    + " failed=" + getFailedCount() + " healthy=" + isHealthy();
+        }
+    }
+
+    private final List<Target> targets = new CopyOnWriteArrayList<>();
+
+    public CompositeAppender addAppender(LogAppender appender, LogLevel minLevel) {
+        return addAppender(appender, minLevel, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    public CompositeAppender addAppender(LogAppender appender, LogLevel minLevel, int capacity, OverflowPolicy policy) {
+        String threadName = "log-" + appender.getClass().getSimpleName() + "-" + targets.size();
+        targets.add(new Target(appender, minLevel, new AsyncLogDispatcher(capacity, policy, minLevel, threadName)));
+        return this;
+    }
+
+    public List<Target> getTargets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    @Override
+    public void append(LogMessage message) {
+        for (Target target : targets) {
+            if (message.getLevel().ordinal() >= target.minLevel.ordinal()) {
+                target.dispatcher.publish(message, target.appender);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (Target target : targets) {
+            target.dispatcher.flush();
+            target.appender.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Target target : targets) {
+            try {
+                target.dispatcher.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            target.appender.close();
+        }
+    }
+}
+
+// log() takes no lock: the level check is one volatile read of the current LogConfig,
+// so appenders must be safe to call from several threads at once.
+class Logger {
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    private static volatile Logger instance;
+    private static final Object lock = new Object();
+    private volatile LogConfig config;
+    private volatile AsyncLogDispatcher dispatcher;
+
+    private Logger(LogConfig config) {
+        this.config = config;
+    }
+    public static Logger getInstance(LogConfig config) {
+        Logger current = instance;
+        if (current == null) {
+            synchronized (lock) {
+                if (instance == null) {
+                    instance = new Logger(config);
+                }
+                current = instance;
+            }
+        }
+        return current;
+    }
+
+    // Same lock as setLevel, so a level change never writes back a config that was just replaced
+    public void setConfig(LogConfig config) {
+        synchronized (lock) {
+            this.config = config;
+        }
+    }
+
+    public LogConfig getConfig() {
+        return config;
+    }
+
+    public void setLevel(LogLevel level) {
+        synchronized (lock) {
+            config = config.withLevel(level);
+        }
+    }
+
+    // Switches to async mode: callers only enqueue, a background thread does the appender I/O
+    public void startAsync(int capacity, OverflowPolicy policy, LogLevel dropThreshold) {
+        synchronized (lock) {
+            if (dispatcher == null) {
+                dispatcher = new AsyncLogDispatcher(capacity, policy, dropThreshold);
+            }
+        }
+    }
+
+    public AsyncLogDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public void flush() {
+        AsyncLogDispatcher current = dispatcher;
+        if (current != null) {
+            current.flush();
+        }
+        config.getAppender().flush();
+    }
+
+    // Drains pending messages and goes back to synchronous logging
+    public void shutdown() throws InterruptedException {
+        AsyncLogDispatcher current;
+        synchronized (lock) {
+            current = dispatcher;
+            dispatcher = null;
+        }
+        if (current != null) {
+            current.shutdown();
+        }
+        config.getAppender().flush();
+    }
+
+    public boolean isEnabled(LogLevel level) {
+        return config.isEnabled(level);
+    }
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+    public boolean isInfoEnabled() {
+        return isEnabled(LogLevel.INFO);
+    }
+    public boolean isWarningEnabled() {
+        return isEnabled(LogLevel.WARNING);
+    }
+    public boolean isErrorEnabled() {
+        return isEnabled(LogLevel.ERROR);
+    }
+
+    public void log(LogLevel level, String message) {
+        LogConfig current = config;
+        if (current.isEnabled(level)) {
+            dispatch(current, new LogMessage(level, message));
+        }
+    }
+
+    // The supplier only runs when the level is enabled
+    public void log(LogLevel level, Supplier<String> message) {
+        LogConfig current = config;
+        if (current.isEnabled(level)) {
+            dispatch(current, new LogMessage(level, message.get()));
+        }
+    }
+
+    // Parameterized: "{}" placeholders are filled in only if an appender renders the text
+    public void log(LogLevel level, String pattern, Object arg) {
+        LogConfig current = config;
+        if (current.isEnabled(level)) {
+            dispatch(current, new LogMessage(level, pattern, 1, arg, null, null, null, NO_FIELDS, NanoClock.epochNanos()));
+        }
+    }
+    public void log(LogLevel level, String pattern, Object arg0, Object arg1) {
+        LogConfig current = config;
+        if (current.isEnabled(level)) {
+            dispatch(current, new LogMessage(level, pattern, 2, arg0, arg1, null, null, NO_FIELDS, NanoClock.epochNanos()));
+        }
+    }
+    public void log(LogLevel level, String pattern, Object arg0, Object arg1, Object arg2) {
+        LogConfig current = config;
+        if (current.isEnabled(level)) {
+            dispatch(current, new LogMessage(level, pattern, 3, arg0, arg1, arg2, null, NO_FIELDS, NanoClock.epochNanos()));
+        }
+    }
+    public void log(LogLevel level, String pattern, Object... args) {
+        LogConfig current = config;
+        if (current.isEnabled(level)) {
+            dispatch(current, new LogMessage(level, pattern, args.length, null, null, null, args, NO_FIELDS, NanoClock.epochNanos()));
+        }
+    }
+
+    // Structured logging: logger.atInfo().with("userId", id).log("Logged in from {}", ip)
+    public LogEventBuilder at(LogLevel level) {
+        return isEnabled(level) ? new LogEventBuilder(this, level) : LogEventBuilder.DISABLED;
+    }
+    public LogEventBuilder atDebug() {
+        return at(LogLevel.DEBUG);
+    }
+    public LogEventBuilder atInfo() {
+        return at(LogLevel.INFO);
+    }
+    public LogEventBuilder atWarning() {
+        return at(LogLevel.WARNING);
+    }
+    public LogEventBuilder atError() {
+        return at(LogLevel.ERROR);
+    }
+    public LogEventBuilder atFatal() {
+        return at(LogLevel.FATAL);
+    }
+
+    void logMessage(LogMessage logMessage) {
+        LogConfig current = config;
+        if (current.isEnabled(logMessage.getLevel())) {
+            dispatch(current, logMessage);
+        }
+    }
+
+    private void dispatch(LogConfig current, LogMessage logMessage) {
+        AsyncLogDispatcher async = dispatcher;
+        if (async != null && async.publish(logMessage, current.getAppender())) {
+            return;
+        }
+        // Synchronous mode, or the dispatcher was shut down while we were publishing
+        current.getAppender().append(logMessage);
+    }
+
+    // Convenience methods
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message);
+    }
+    public void info(String message) {
+        log(LogLevel.INFO, message);
+    }
+    public void warning(String message) {
+        log(LogLevel.WARNING, message);
+    }
+    public void error(String message) {
+        log(LogLevel.ERROR, message);
+    }
+    public void fatal(String message) {
+        log(LogLevel.FATAL, message);
+    }
+
+    public void debug(Supplier<String> message) {
+        log(LogLevel.DEBUG, message);
+    }
+    public void info(Supplier<String> message) {
+        log(LogLevel.INFO, message);
+    }
+    public void warning(Supplier<String> message) {
+        log(LogLevel.WARNING, message);
+    }
+    public void error(Supplier<String> message) {
+        log(LogLevel.ERROR, message);
+    }
+    public void fatal(Supplier<String> message) {
+        log(LogLevel.FATAL, message);
+    }
+
+    public void debug(String pattern, Object arg) {
+        log(LogLevel.DEBUG, pattern, arg);
+    }
+    public void debug(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.DEBUG, pattern, arg0, arg1);
+    }
+    public void debug(String pattern, Object arg0, Object arg1, Object arg2) {
+        log(LogLevel.DEBUG, pattern, arg0, arg1, arg2);
+    }
+    public void debug(String pattern, Object... args) {
+        log(LogLevel.DEBUG, pattern, args);
+    }
+
+    public void info(String pattern, Object arg) {
+        log(LogLevel.INFO, pattern, arg);
+    }
+    public void info(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.INFO, pattern, arg0, arg1);
+    }
+    public void info(String pattern, Object arg0, Object arg1, Object arg2) {
+        log(LogLevel.INFO, pattern, arg0, arg1, arg2);
+    }
+    public void info(String pattern, Object... args) {
+        log(LogLevel.INFO, pattern, args);
+    }
+
+    public void warning(String pattern, Object arg) {
+        log(LogLevel.WARNING, pattern, arg);
+    }
+    public void warning(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.WARNING, pattern, arg0, arg1);
+    }
+    public void warning(String pattern, Object arg0, Object arg1, Object arg2) {
+        log(LogLevel.WARNING, pattern, arg0, arg1, arg2);
+    }
+    public void warning(String pattern, Object... args) {
+        log(LogLevel.WARNING, pattern, args);
+    }
+
+    public void error(String pattern, Object arg) {
+        log(LogLevel.ERROR, pattern, arg);
+    }
+    public void error(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.ERROR, pattern, arg0, arg1);
+    }
+    public void error(String pattern, Object arg0, Object arg1, Object arg2) {
+        log(LogLevel.ERROR, pattern, arg0, arg1, arg2);
+    }
+    public void error(String pattern, Object... args) {
+        log(LogLevel.ERROR, pattern, args);
+    }
+
+    public void fatal(String pattern, Object arg) {
+        log(LogLevel.FATAL, pattern, arg);
+    }
+    public void fatal(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.FATAL, pattern, arg0, arg1);
+    }
+    public void fatal(String pattern, Object arg0, Object arg1, Object arg2) {
+        log(LogLevel.FATAL, pattern, arg0, arg1, arg2);
+    }
+    public void fatal(String pattern, Object... args) {
+        log(LogLevel.FATAL, pattern, args);
+    }
+
+}
+
+
+public class LoggingDemo {
+    public static void main(String[] args) throws InterruptedException {
+        Logger logger = Logger.getInstance(new LogConfig(LogLevel.INFO , new ConsoleAppender()));
+
+        // Default logger (INFO + console)
+        logger.debug("This will not be logged (below INFO)");
+        logger.info("This is an info message.");
+
+        // Change to DEBUG level + file output
+        FileAppender fileAppender = new FileAppender("app.log");
+        logger.setConfig(new LogConfig(LogLevel.DEBUG, fileAppender));
+
+        logger.debug("Debug message - should go to file.");
+        logger.error("Error message - should go to file.");
+        logger.flush();
+
+        // Change to DB appender (batches spill to db-spill.log if the database is unreachable)
+        DatabaseAppender database = new DatabaseAppender("jdbc:h2:mem:logs;DB_CLOSE_DELAY=-1");
+        logger.setConfig(new LogConfig(LogLevel.WARNING, database));
+        fileAppender.close(); // replaced appenders keep their threads and files until closed
+
+        logger.info("This will NOT be logged (below WARNING).");
+        logger.warning("Warning - stored in DB.");
+
+        // Guards and suppliers keep disabled levels from building the message at all
+        if (logger.isDebugEnabled()) {
+            logger.debug("Never built: " + logger.getConfig());
+        }
+        logger.info(() -> "Never built either: " + logger.getConfig());
+
+
+        Runnable task = () -> {
+            for (int i = 0; i < 3; i++) {
+                logger.warning(Thread.currentThread().getName() + ": Logging from thread " + i);
+            }
+        };
+
+        Thread thread1 = new Thread(task, "T1");
+        Thread thread2 = new Thread(task, "T2");
+        thread1.start();
+        thread1.join();
+        thread2.start();
+        thread2.join();
+        logger.flush();
+
+        // Async mode: threads only enqueue, the dispatcher thread writes to the appender
+        logger.setConfig(new LogConfig(LogLevel.INFO, new ConsoleAppender()));
+        database.close();
+        logger.startAsync(1024, OverflowPolicy.DROP_BELOW_LEVEL, LogLevel.WARNING);
+
+        Thread thread3 = new Thread(task, "T3");
+        Thread thread4 = new Thread(task, "T4");
+        thread3.start();
+        thread4.start();
+        thread3.join();
+        thread4.join();
+
+        logger.flush();
+        AsyncLogDispatcher dispatcher = logger.getDispatcher();
+        System.out.println("Queued: " + dispatcher.getQueuedCount() + ", dropped: " + dispatcher.getDroppedCount());
+        logger.shutdown();
+
+        // Fan out: everything to the console, only errors to the file
+        CompositeAppender composite = new CompositeAppender()
+                .addAppender(new ConsoleAppender(), LogLevel.INFO)
+                .addAppender(new FileAppender("app.log"), LogLevel.ERROR);
+        logger.setConfig(new LogConfig(LogLevel.INFO, composite));
+        logger.info("Info - console only.");
+        logger.error("Error - console and file.");
+        logger.flush();
+        for (CompositeAppender.Target target : composite.getTargets()) {
+            System.out.println(target);
+        }
+        composite.close();
+
+        // Parameterized and structured messages, rendered as JSON lines
+        logger.setConfig(new LogConfig(LogLevel.INFO, new ConsoleAppender(new JsonLayout())));
+        logger.debug("Not rendered: {} {}", composite, dispatcher);
+        logger.info("User {} logged in from {}", "alice", "10.0.0.1");
+        logger.atWarning().with("userId", 42).with("path", "/jobs").log("Slow request took {} ms", 1234);
+    }
+}
\ No newline at end of file
@@ -1,3 +1,5 @@
+package parkinglot;
+
 import java.util.*;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -0,0 +1,1203 @@
+package stackoverflow;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+
+
+class User {
+    int id;
+    String name;
+    String email;
+    volatile int reputation;
+    final UserActivity activity = new UserActivity(); // what this user has written, maintained on write
+
+    private static final AtomicIntegerFieldUpdater<User> REPUTATION =
+            AtomicIntegerFieldUpdater.newUpdater(User.class, "reputation");
+    static final AtomicInteger idCounter = new AtomicInteger(1);
+    User(String name, String email) {
+        this.id = idCounter.getAndIncrement();
+        this.name = name;
+        this.email = email;
+        this.reputation = 0;
+    }
+
+    void increaseReputation(int points) {
+        REPUTATION.addAndGet(this, points);
+    }
+}
+
+class Tag {
+    int id;
+    String name;
+
+    static final AtomicInteger idCounter = new AtomicInteger(1);
+    Tag(String name) {
+        this.id = idCounter.getAndIncrement();
+        this.name = name;
+    }
+}
+
+class Comment {
+    int id;
+    String content;
+    User author;
+    Date creationDate;
+
+    static final AtomicInteger idCounter = new AtomicInteger(1);
+    Comment(String content, User author) {
+        this.id = idCounter.getAndIncrement();
+        this.content = content;
+        this.author = author;
+        this.creationDate = new Date();
+    }
+}
+
+class Vote {
+    int id;
+    User user;
+    Boolean isUpvote;
+
+    static final AtomicInteger idCounter = new AtomicInteger(1);
+    Vote(User user, boolean isUpvote) {
+        this.id = idCounter.getAndIncrement();
+        this.user = user;
+        this.isUpvote = isUpvote;
+    }
+
+}
+
+
+class Answer {
+    int id;
+    String content;
+    User author;
+    Date creationDate;
+    List<Comment> comments;
+    Queue<Vote> votes;
+    volatile int score; // upvotes minus downvotes
+    volatile boolean accepted;
+    Question question;
+
+    private static final AtomicIntegerFieldUpdater<Answer> SCORE = AtomicIntegerFieldUpdater.newUpdater(Answer.class, "score");
+
+    static final AtomicInteger idCounter = new AtomicInteger(1);
+    Answer(String content, User author, Question question) {
+        this.id = idCounter.getAndIncrement();
+        this.content = content;
+        this.author = author;
+        this.creationDate = new Date();
+        this.comments = new CopyOnWriteArrayList<>();
+        this.votes = new ConcurrentLinkedQueue<>();
+        this.question = question;
+    }
+
+    public void addComment(Comment comment) {
+        this.comments.add(comment);
+    }
+
+    public void addVote(Vote vote) {
+        this.votes.add(vote);
+        SCORE.addAndGet(this, vote.isUpvote ? 1 : -1);
+    }
+}
+
+
+class Question {
+    int id;
+    String title;
+    String content;
+    User author;
+    Date creationDate;
+    List <Tag> tags; // filled in before the question is published, read-only afterwards
+    List <Comment> comments;
+    Queue <Vote> votes;
+    List<Answer> answers;
+    volatile int score; // upvotes minus downvotes
+    volatile Answer acceptedAnswer; // changed only under the question's monitor
+
+    private static final AtomicIntegerFieldUpdater<Question> SCORE = AtomicIntegerFieldUpdater.newUpdater(Question.class, "score");
+
+    static final AtomicInteger idCounter = new AtomicInteger(1);
+    Question(String title, String content, User author){
+        this.id = idCounter.getAndIncrement();
+        this.title = title;
+        this.content = content;
+        this.author = author;
+        this.creationDate = new Date();
+        this.tags = new ArrayList<>();
+        // Copy-on-write: readers iterate a stable snapshot; answers and comments are rare next to reads
+        this.comments = new CopyOnWriteArrayList<>();
+        this.votes = new ConcurrentLinkedQueue<>();
+        this.answers = new CopyOnWriteArrayList<>();
+    }
+
+    public void addTags(Tag tag){
+        this.tags.add(tag);
+    }
+
+    public void addAnswer(Answer answer){
+        this.answers.add(answer);
+    }
+
+    public void addComment(Comment comment) {
+        this.comments.add(comment);
+    }
+    public void addVote(Vote vote) {
+        this.votes.add(vote);
+        SCORE.addAndGet(this, vote.isUpvote ? 1 : -1);
+    }
+
+}
+
+// Ids ascending, each with an optional item, added under the monitor and read without locks.
+// Slots are filled before size moves, and an out-of-order add from a racing writer swaps in a
+// copy, so a reader that reads size() and then slots() sees a sorted, stable prefix.
+class SortedIdList<T> {
+    static final class Slots {
+        final int[] ids;
+        final Object[] items; // null when the list keeps no items
+
+        Slots(int[] ids, Object[] items) {
+            this.ids = ids;
+            this.items = items;
+        }
+    }
+
+    private volatile Slots slots;
+    private volatile int size = 0;
+
+    SortedIdList(boolean withItems) {
+        slots = new Slots(new int[4], withItems ? new Object[4] : null);
+    }
+
+    synchronized void add(int id, T item) {
+        int n = size;
+        Slots current = slots;
+        if (n > 0 && current.ids[n - 1] > id) {
+            int capacity = Math.max(current.ids.length, n + 1);
+            int[] ids = Arrays.copyOf(current.ids, capacity);
+            Object[] items = current.items == null ? null : Arrays.copyOf(current.items, capacity);
+            int at = -Arrays.binarySearch(ids, 0, n, id) - 1;
+            System.arraycopy(ids, at, ids, at + 1, n - at);
+            ids[at] = id;
+            if (items != null) {
+                System.arraycopy(items, at, items, at + 1, n - at);
+                items[at] = item;
+            }
+            slots = new Slots(ids, items);
+        } else {
+            if (n == current.ids.length) {
+                current = new Slots(Arrays.copyOf(current.ids, n * 2),
+                        current.items == null ? null : Arrays.copyOf(current.items, n * 2));
+                slots = current;
+            }
+            current.ids[n] = id;
+            if (current.items != null) {
+                current.items[n] = item;
+            }
+        }
+        size = n + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Read after size(); the first size() entries are valid
+    Slots slots() {
+        return slots;
+    }
+}
+
+// One user's questions, answers or comments, ids ascending (= oldest first)
+class AuthoredItems<T> {
+    private final ToIntFunction<T> idOf;
+    private final SortedIdList<T> list = new SortedIdList<>(true);
+
+    AuthoredItems(ToIntFunction<T> idOf) {
+        this.idOf = idOf;
+    }
+
+    void add(T item) {
+        list.add(idOf.applyAsInt(item), item);
+    }
+
+    int size() {
+        return list.size();
+    }
+
+    // Oldest first
+    @SuppressWarnings("unchecked")
+    List<T> all() {
+        int n = list.size();
+        SortedIdList.Slots current = list.slots();
+        List<T> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add((T) current.items[i]);
+        }
+        return result;
+    }
+
+    // Up to limit items with ids below cursor, newest first
+    @SuppressWarnings("unchecked")
+    ActivityPage<T> before(int cursor, int limit) {
+        int n = list.size();
+        SortedIdList.Slots current = list.slots();
+        int end = Arrays.binarySearch(current.ids, 0, n, cursor);
+        end = end >= 0 ? end : -end - 1;
+        int count = Math.max(0, Math.min(limit, end));
+        List<T> page = new ArrayList<>(count);
+        for (int i = end - 1; i >= end - count; i--) {
+            page.add((T) current.items[i]);
+        }
+        int nextCursor = count > 0 && end - count > 0 ? current.ids[end - count] : -1;
+        return new ActivityPage<>(page, nextCursor);
+    }
+}
+
+class ActivityPage<T> {
+    static final int FIRST_PAGE = Integer.MAX_VALUE;
+
+    final List<T> items;
+    final int nextCursor; // -1 when there is nothing older
+
+    ActivityPage(List<T> items, int nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor >= 0;
+    }
+}
+
+// Per-user index of authored content with running counts, so a profile never scans other users' posts
+class UserActivity {
+    final AuthoredItems<Question> questions = new AuthoredItems<>(q -> q.id);
+    final AuthoredItems<Answer> answers = new AuthoredItems<>(a -> a.id);
+    final AuthoredItems<Comment> comments = new AuthoredItems<>(c -> c.id);
+    final AtomicInteger acceptedAnswers = new AtomicInteger();
+}
+
+class UserProfile {
+    final User user;
+    final int reputation;
+    final int questionsAsked;
+    final int answersGiven;
+    final int acceptedAnswers;
+    final ActivityPage<Question> recentQuestions;
+    final ActivityPage<Answer> recentAnswers;
+
+    UserProfile(User user, int questionsAsked, int answersGiven, int acceptedAnswers,
+                ActivityPage<Question> recentQuestions, ActivityPage<Answer> recentAnswers) {
+        this.user = user;
+        this.reputation = user.reputation;
+        this.questionsAsked = questionsAsked;
+        this.answersGiven = answersGiven;
+        this.acceptedAnswers = acceptedAnswers;
+        this.recentQuestions = recentQuestions;
+        this.recentAnswers = recentAnswers;
+    }
+}
+
+// Questions carrying one tag: ids ascending (= oldest first) for recency pages and set
+// operations, plus a skip list ordered by score for "top voted" pages.
+class TagPostings {
+    private final SortedIdList<Void> ids = new SortedIdList<>(false);
+    private final ConcurrentSkipListSet<Long> byScore = new ConcurrentSkipListSet<>();
+
+    // Highest score first, newest first among equal scores
+    static long scoreKey(int score, int questionId) {
+        return ((long) -score << 32) + (Integer.MAX_VALUE - questionId);
+    }
+
+    static int questionId(long scoreKey) {
+        return Integer.MAX_VALUE - (int) (scoreKey & 0xFFFFFFFFL);
+    }
+
+    void add(int questionId, int score) {
+        ids.add(questionId, null);
+        byScore.add(scoreKey(score, questionId));
+    }
+
+    // Called with the question's monitor held, so score moves for one question are ordered.
+    // The new key goes in first so concurrent top() readers never miss the question.
+    void rescore(int questionId, int oldScore, int newScore) {
+        if (oldScore != newScore) {
+            byScore.add(scoreKey(newScore, questionId));
+            byScore.remove(scoreKey(oldScore, questionId));
+        }
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    // The published id array, ascending in its first size() entries as read before this call.
+    // Writers never shift an array once published, so callers can scan it in place.
+    int[] ids() {
+        return ids.slots().ids;
+    }
+
+    // Up to limit ids, newest first
+    int[] latest(int limit) {
+        int n = ids.size();
+        int[] current = ids.slots().ids;
+        int[] result = new int[Math.max(0, Math.min(limit, n))];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = current[n - 1 - i];
+        }
+        return result;
+    }
+
+    // Up to limit ids, highest score first. Walks only the head of the skip list (its size() is
+    // a full scan); a question caught mid-rescore is listed once, at the first key seen.
+    int[] top(int limit) {
+        List<Integer> result = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        for (Iterator<Long> it = byScore.iterator(); it.hasNext() && result.size() < limit; ) {
+            int questionId = questionId(it.next());
+            if (seen.add(questionId)) {
+                result.add(questionId);
+            }
+        }
+        int[] ids = new int[result.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = result.get(i);
+        }
+        return ids;
+    }
+}
+
+// One part of a question's searchable text, as weighted term frequencies: either the question
+// with its answers so far, which starts a new version, or one later answer added to the current
+// version. Parts are chained into an unbounded lock-free MPSC list: writers swap the tail and
+// link the previous node.
+class IndexedDoc {
+    final int docId, version;
+    final Map<String, Integer> termFrequencies;
+    volatile IndexedDoc next;
+
+    IndexedDoc(int docId, int version, Map<String, Integer> termFrequencies) {
+        this.docId = docId;
+        this.version = version;
+        this.termFrequencies = termFrequencies;
+    }
+}
+
+// Immutable batch of indexed documents, one slot per document in ascending id order. postings
+// maps a term to (slot, tf) pairs.
+class SearchSegment {
+    final int[] docIds, versions;
+    final Map<String, int[]> postings;
+
+    // docs must be sorted by docId, at most one per document
+    SearchSegment(List<IndexedDoc> docs) {
+        docIds = new int[docs.size()];
+        versions = new int[docs.size()];
+        Map<String, int[]> building = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (int slot = 0; slot < docs.size(); slot++) {
+            IndexedDoc doc = docs.get(slot);
+            docIds[slot] = doc.docId;
+            versions[slot] = doc.version;
+            for (Map.Entry<String, Integer> term : doc.termFrequencies.entrySet()) {
+                int used = counts.getOrDefault(term.getKey(), 0);
+                int[] list = building.get(term.getKey());
+                if (list == null || list.length == used) {
+                    list = list == null ? new int[4] : Arrays.copyOf(list, used * 2);
+                    building.put(term.getKey(), list);
+                }
+                list[used] = slot;
+                list[used + 1] = term.getValue();
+                counts.put(term.getKey(), used + 2);
+            }
+        }
+        for (Map.Entry<String, int[]> entry : building.entrySet()) {
+            entry.setValue(Arrays.copyOf(entry.getValue(), counts.get(entry.getKey())));
+        }
+        postings = building;
+    }
+
+    int size() {
+        return docIds.length;
+    }
+
+    // Slot of docId, or a negative value when this segment has no part of it
+    int slotOf(int docId) {
+        return Arrays.binarySearch(docIds, docId);
+    }
+}
+
+// Incremental BM25 index over questions (title, body and answers). Writers only link a new
+// document part onto a lock-free list, and an answer adds just its own terms; a background task
+// turns the unindexed tail into immutable segments, folding each document's parts into one slot,
+// merges segments by size tier and swaps in a new IndexState. Searches read one IndexState and
+// score its segments plus the still-unindexed tail, so they never wait for the indexer and
+// writers never wait for either.
+class QuestionSearchIndex {
+    static final double K1 = 1.2, B = 0.75;
+    static final int TITLE_WEIGHT = 2;
+    static final int MERGE_FACTOR = 4; // segments of one size tier that get merged into the next
+    static final long REFRESH_MILLIS = 50;
+
+    // One daemon thread flushes every index, created on first use
+    private static final class Indexer {
+        static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "question-indexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            SCHEDULER.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    // Current version of a document, with the length and number of its parts published so far
+    private static final class LiveDoc {
+        final int version, length, parts;
+
+        LiveDoc(int version, int length, int parts) {
+            this.version = version;
+            this.length = length;
+            this.parts = parts;
+        }
+    }
+
+    // A document found by an earlier query term
+    private static final class Candidate {
+        final int length;
+        double score;
+
+        Candidate(int length) {
+            this.length = length;
+        }
+    }
+
+    private static final class IndexState {
+        final SearchSegment[] segments;
+        final IndexedDoc consumed; // last part already in segments
+
+        IndexState(SearchSegment[] segments, IndexedDoc consumed) {
+            this.segments = segments;
+            this.consumed = consumed;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, LiveDoc> liveDocs = new ConcurrentHashMap<>();
+    private final AtomicLong liveLength = new AtomicLong(); // summed over live versions only
+    private final AtomicReference<IndexedDoc> tail;
+    private volatile IndexState state;
+    private final ScheduledFuture<?> flushTask;
+
+    QuestionSearchIndex() {
+        IndexedDoc sentinel = new IndexedDoc(-1, 0, Collections.emptyMap());
+        tail = new AtomicReference<>(sentinel);
+        state = new IndexState(new SearchSegment[0], sentinel);
+        flushTask = scheduleFlush(new WeakReference<>(this));
+    }
+
+    // The task only holds the index weakly and cancels itself once the index is gone, so an index
+    // dropped without shutdown() does not keep itself alive
+    private static ScheduledFuture<?> scheduleFlush(WeakReference<QuestionSearchIndex> target) {
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+        task.set(Indexer.SCHEDULER.scheduleWithFixedDelay(() -> {
+            QuestionSearchIndex index = target.get();
+            if (index != null) {
+                index.flush();
+            } else if (task.get() != null) {
+                task.get().cancel(false);
+            }
+        }, REFRESH_MILLIS, REFRESH_MILLIS, TimeUnit.MILLISECONDS));
+        return task.get();
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Starts a new version with the question's whole text. Caller holds the question's monitor,
+    // so versions follow the order its text changed in.
+    void index(Question question) {
+        Map<String, Integer> tf = new HashMap<>();
+        for (String token : tokenize(question.title)) {
+            tf.merge(token, TITLE_WEIGHT, Integer::sum);
+        }
+        for (String token : tokenize(question.content)) {
+            tf.merge(token, 1, Integer::sum);
+        }
+        for (Answer answer : question.answers) {
+            for (String token : tokenize(answer.content)) {
+                tf.merge(token, 1, Integer::sum);
+            }
+        }
+        publish(question.id, tf, true);
+    }
+
+    // Adds one new answer to an indexed question as a part of its own; caller holds the
+    // question's monitor
+    void indexAnswer(Question question, Answer answer) {
+        if (!liveDocs.containsKey(question.id)) {
+            index(question);
+            return;
+        }
+        Map<String, Integer> tf = new HashMap<>();
+        for (String token : tokenize(answer.content)) {
+            tf.merge(token, 1, Integer::sum);
+        }
+        publish(question.id, tf, false);
+    }
+
+    private void publish(int docId, Map<String, Integer> tf, boolean newVersion) {
+        int length = 0;
+        for (int count : tf.values()) {
+            length += count;
+        }
+        int partLength = length;
+        LiveDoc[] previous = new LiveDoc[1];
+        LiveDoc live = liveDocs.compute(docId, (id, old) -> {
+            previous[0] = old;
+            if (old == null) {
+                return new LiveDoc(1, partLength, 1);
+            }
+            return newVersion ? new LiveDoc(old.version + 1, partLength, 1)
+                    : new LiveDoc(old.version, old.length + partLength, old.parts + 1);
+        });
+        liveLength.addAndGet(live.length - (previous[0] == null ? 0 : previous[0].length));
+        IndexedDoc doc = new IndexedDoc(docId, live.version, tf);
+        tail.getAndSet(doc).next = doc;
+    }
+
+    // Indexes everything linked so far; runs on the indexer thread, or inline via refresh()
+    private synchronized void flush() {
+        IndexState current = state;
+        List<IndexedDoc> batch = new ArrayList<>();
+        IndexedDoc last = current.consumed;
+        for (IndexedDoc doc = last.next; doc != null; doc = doc.next) {
+            batch.add(doc);
+            last = doc;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        SearchSegment[] segments = Arrays.copyOf(current.segments, current.segments.length + 1);
+        segments[segments.length - 1] = new SearchSegment(fold(live(batch)));
+        state = new IndexState(mergeTiers(segments), last);
+    }
+
+    // Size-tiered merging: segments run oldest to newest, and whenever the newest MERGE_FACTOR
+    // segments are no smaller a tier at the old end than at the new end they become one segment.
+    // Each document is rewritten about once per tier, and at most MERGE_FACTOR - 1 segments stay
+    // per tier.
+    private SearchSegment[] mergeTiers(SearchSegment[] segments) {
+        int count = segments.length;
+        while (count >= MERGE_FACTOR && tier(segments[count - MERGE_FACTOR]) <= tier(segments[count - 1])) {
+            segments[count - MERGE_FACTOR] = merge(Arrays.copyOfRange(segments, count - MERGE_FACTOR, count));
+            count -= MERGE_FACTOR - 1;
+        }
+        return count == segments.length ? segments : Arrays.copyOf(segments, count);
+    }
+
+    private static int tier(SearchSegment segment) {
+        int tier = 0;
+        for (long size = segment.size(); size >= MERGE_FACTOR; size /= MERGE_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+
+    // Makes everything posted so far searchable from segments
+    void refresh() {
+        flush();
+    }
+
+    void shutdown() {
+        flushTask.cancel(false);
+    }
+
+    // Parts of each document's live version, skipping superseded ones
+    private List<IndexedDoc> live(List<IndexedDoc> docs) {
+        List<IndexedDoc> result = new ArrayList<>(docs.size());
+        for (IndexedDoc doc : docs) {
+            if (isLive(doc.docId, doc.version)) {
+                result.add(doc);
+            }
+        }
+        return result;
+    }
+
+    private boolean isLive(int docId, int version) {
+        LiveDoc live = liveDocs.get(docId);
+        return live != null && live.version == version;
+    }
+
+    // One part per document, in ascending id order; parts of one document share its live version
+    private static List<IndexedDoc> fold(List<IndexedDoc> parts) {
+        TreeMap<Integer, IndexedDoc> byDoc = new TreeMap<>();
+        for (IndexedDoc part : parts) {
+            IndexedDoc folded = byDoc.get(part.docId);
+            if (folded == null) {
+                byDoc.put(part.docId, part);
+            } else {
+                Map<String, Integer> tf = new HashMap<>(folded.termFrequencies); // parts are never modified
+                part.termFrequencies.forEach((term, count) -> tf.merge(term, count, Integer::sum));
+                byDoc.put(part.docId, new IndexedDoc(part.docId, part.version, tf));
+            }
+        }
+        return new ArrayList<>(byDoc.values());
+    }
+
+    private SearchSegment merge(SearchSegment[] segments) {
+        List<IndexedDoc> docs = new ArrayList<>();
+        for (SearchSegment segment : segments) {
+            List<Map<String, Integer>> tfs = new ArrayList<>(segment.size());
+            for (int slot = 0; slot < segment.size(); slot++) {
+                tfs.add(new HashMap<>());
+            }
+            for (Map.Entry<String, int[]> term : segment.postings.entrySet()) {
+                int[] list = term.getValue();
+                for (int i = 0; i < list.length; i += 2) {
+                    tfs.get(list[i]).put(term.getKey(), list[i + 1]);
+                }
+            }
+            for (int slot = 0; slot < segment.size(); slot++) {
+                docs.add(new IndexedDoc(segment.docIds[slot], segment.versions[slot], tfs.get(slot)));
+            }
+        }
+        return new SearchSegment(fold(live(docs)));
+    }
+
+    // Top-k question ids by BM25, best first. Document count, lengths and document frequencies
+    // cover live versions only, and a document's parts are summed before scoring. Terms are
+    // scored in order of falling idf; once the remaining terms together cannot lift an unseen
+    // document past the current k-th score, the posting lists are no longer walked for scoring:
+    // documents already found look the term up per segment by id, and those that can no longer
+    // reach the k-th score are dropped.
+    int[] search(String query, int k) {
+        IndexState current = state;
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (terms.isEmpty() || k <= 0) {
+            return new int[0];
+        }
+        Map<Integer, List<IndexedDoc>> pending = new HashMap<>(); // parts not in a segment yet
+        for (IndexedDoc doc = current.consumed.next; doc != null; doc = doc.next) {
+            if (isLive(doc.docId, doc.version)) {
+                pending.computeIfAbsent(doc.docId, id -> new ArrayList<>(1)).add(doc);
+            }
+        }
+        int docCount = Math.max(1, liveDocs.size());
+        double averageLength = Math.max(1.0, (double) liveLength.get() / docCount);
+
+        double[] idf = new double[terms.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            int df = documentFrequency(current, pending, terms.get(t));
+            idf[t] = Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+        }
+        Integer[] order = new Integer[terms.size()];
+        for (int t = 0; t < order.length; t++) {
+            order[t] = t;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(idf[y], idf[x]));
+        double remaining = 0;
+        for (double value : idf) {
+            remaining += value * (K1 + 1); // bm25's tf part never reaches k1 + 1
+        }
+
+        Map<Integer, Candidate> candidates = new HashMap<>();
+        PriorityQueue<Double> topK = new PriorityQueue<>();
+        for (int t : order) {
+            remaining -= idf[t] * (K1 + 1);
+            String term = terms.get(t);
+            if (topK.size() < k || idf[t] * (K1 + 1) + remaining > topK.peek()) {
+                // An unseen document can still make the top k: walk the postings
+                Map<Integer, Integer> tfs = new HashMap<>();
+                for (SearchSegment segment : current.segments) {
+                    int[] list = segment.postings.get(term);
+                    if (list == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < list.length; i += 2) {
+                        int docId = segment.docIds[list[i]];
+                        if (isLive(docId, segment.versions[list[i]])) {
+                            tfs.merge(docId, list[i + 1], Integer::sum);
+                        }
+                    }
+                }
+                for (List<IndexedDoc> parts : pending.values()) {
+                    for (IndexedDoc part : parts) {
+                        Integer tf = part.termFrequencies.get(term);
+                        if (tf != null) {
+                            tfs.merge(part.docId, tf, Integer::sum);
+                        }
+                    }
+                }
+                for (Map.Entry<Integer, Integer> entry : tfs.entrySet()) {
+                    Candidate candidate = candidates.get(entry.getKey());
+                    if (candidate == null) {
+                        LiveDoc live = liveDocs.get(entry.getKey());
+                        candidate = new Candidate(live != null ? live.length : 0);
+                        candidates.put(entry.getKey(), candidate);
+                    }
+                    candidate.score += bm25(idf[t], entry.getValue(), candidate.length, averageLength);
+                }
+            } else {
+                // Bound reached: no more posting walks, only look the term up for the candidates left
+                for (Map.Entry<Integer, Candidate> entry : candidates.entrySet()) {
+                    int tf = termFrequency(current, pending, entry.getKey(), term);
+                    if (tf > 0) {
+                        Candidate candidate = entry.getValue();
+                        candidate.score += bm25(idf[t], tf, candidate.length, averageLength);
+                    }
+                }
+            }
+            topK.clear();
+            for (Candidate candidate : candidates.values()) {
+                topK.offer(candidate.score);
+                if (topK.size() > k) {
+                    topK.poll();
+                }
+            }
+            if (topK.size() == k) {
+                // Candidates that cannot catch up with the k-th score even with every remaining term
+                double threshold = topK.peek();
+                double bound = Math.max(0, remaining); // rounding can leave it just below zero at the end
+                candidates.values().removeIf(candidate -> candidate.score + bound < threshold);
+            }
+        }
+        // Worst of the best k on top; newer questions win ties
+        PriorityQueue<Map.Entry<Integer, Candidate>> best = new PriorityQueue<>(
+                Comparator.<Map.Entry<Integer, Candidate>>comparingDouble(entry -> entry.getValue().score)
+                        .thenComparing(Map.Entry.comparingByKey()));
+        for (Map.Entry<Integer, Candidate> entry : candidates.entrySet()) {
+            best.offer(entry);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        int[] ids = new int[best.size()];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            ids[i] = best.poll().getKey();
+        }
+        return ids;
+    }
+
+    // Live documents containing term. Postings of superseded versions are skipped, and a document
+    // whose parts sit in several places is counted once.
+    private int documentFrequency(IndexState current, Map<Integer, List<IndexedDoc>> pending, String term) {
+        int df = 0;
+        Set<Integer> counted = new HashSet<>(); // only documents with more than one part
+        for (SearchSegment segment : current.segments) {
+            int[] list = segment.postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            for (int i = 0; i < list.length; i += 2) {
+                int docId = segment.docIds[list[i]];
+                LiveDoc live = liveDocs.get(docId);
+                if (live != null && live.version == segment.versions[list[i]] && (live.parts == 1 || counted.add(docId))) {
+                    df++;
+                }
+            }
+        }
+        for (Map.Entry<Integer, List<IndexedDoc>> entry : pending.entrySet()) {
+            for (IndexedDoc part : entry.getValue()) {
+                if (part.termFrequencies.containsKey(term)) {
+                    df += counted.add(entry.getKey()) ? 1 : 0;
+                    break;
+                }
+            }
+        }
+        return df;
+    }
+
+    // tf of term in a document's live parts, found per segment by id instead of by posting walk
+    private int termFrequency(IndexState current, Map<Integer, List<IndexedDoc>> pending, int docId, String term) {
+        int tf = 0;
+        for (SearchSegment segment : current.segments) {
+            int slot = segment.slotOf(docId);
+            if (slot >= 0 && isLive(docId, segment.versions[slot])) {
+                tf += termFrequency(segment.postings.get(term), slot);
+            }
+        }
+        for (IndexedDoc part : pending.getOrDefault(docId, Collections.emptyList())) {
+            tf += part.termFrequencies.getOrDefault(term, 0);
+        }
+        return tf;
+    }
+
+    // tf of slot in a (slot, tf) posting list sorted by slot, 0 when absent
+    private static int termFrequency(int[] list, int slot) {
+        if (list == null) {
+            return 0;
+        }
+        int low = 0, high = list.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int at = list[mid * 2];
+            if (at < slot) {
+                low = mid + 1;
+            } else if (at > slot) {
+                high = mid - 1;
+            } else {
+                return list[mid * 2 + 1];
+            }
+        }
+        return 0;
+    }
+
+    private static double bm25(double idf, int tf, int length, double averageLength) {
+        return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+    }
+}
+
+// No global lock: entities live in concurrent maps, per-question state (answers, comments,
+// votes, score) is updated through concurrent collections and atomics, and tag and user scans
+// read a published prefix of a SortedIdList. Writers to different questions never contend.
+class StackOverflow {
+    private final Map<Integer, User> users = new ConcurrentHashMap<>();
+    private final Map<Integer, Question> questions = new ConcurrentHashMap<>();
+    private final Map<Integer, Tag> tags = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Tag> tagsByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, TagPostings> tagPostings = new ConcurrentHashMap<>();
+    private final QuestionSearchIndex searchIndex = new QuestionSearchIndex();
+    static final int DEFAULT_SEARCH_LIMIT = 50;
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final int ACCEPTED_ANSWER_REPUTATION = 15;
+
+    public User createUser(String name, String email){
+        User user = new User(name,email);
+        users.put(user.id,user);
+        return user;
+    }
+
+    public Question postQuestion(String title, String content, User author, List<String> tagNames){
+        Question question = new Question(title, content, author);
+
+        for(String tagName: tagNames){
+            Tag tag = internTag(tagName);
+            if (!question.tags.contains(tag)) {
+                question.addTags(tag);
+            }
+        }
+
+        // Publish only once fully built
+        questions.put(question.id, question);
+        synchronized (question) {
+            for (Tag tag : question.tags) {
+                tagPostings.get(tag.id).add(question.id, question.score);
+            }
+            searchIndex.index(question);
+        }
+        author.activity.questions.add(question);
+        return question;
+    }
+
+    static String normalizeTag(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // One Tag per normalized name
+    public Tag internTag(String name) {
+        return tagsByName.computeIfAbsent(normalizeTag(name), key -> {
+            Tag tag = new Tag(key);
+            tagPostings.put(tag.id, new TagPostings());
+            tags.put(tag.id, tag);
+            return tag;
+        });
+    }
+
+    public Answer postAnswer(String content, User author, Question question){
+        Answer ans = new Answer(content, author, question);
+        synchronized (question) {
+            question.addAnswer(ans);
+            if (questions.containsKey(question.id)) {
+                searchIndex.indexAnswer(question, ans); // answers are part of the question's searchable text
+            }
+        }
+        author.activity.answers.add(ans);
+        return ans;
+    }
+
+    public Comment postComment(String content, User author) {
+        Comment comment = new Comment(content, author);
+        author.activity.comments.add(comment);
+        return comment;
+    }
+
+    public void addCommentToQuestion(Comment c, Question q) {
+        q.addComment(c);
+    }
+
+    public void addCommentToAnswer(Comment c, Answer a) {
+        a.addComment(c);
+    }
+
+    public void voteQuestion(User user, Question question, Boolean isUpVote){
+        Vote vote = new Vote(user,isUpVote);
+        // Per-question lock keeps each tag's score order in step with the score
+        synchronized (question) {
+            int oldScore = question.score;
+            question.addVote(vote);
+            if (questions.containsKey(question.id)) {
+                for (Tag tag : question.tags) {
+                    tagPostings.get(tag.id).rescore(question.id, oldScore, question.score);
+                }
+            }
+        }
+        question.author.increaseReputation(isUpVote ? 10 : -2);
+    }
+
+    public void voteAnswer(User user, Answer answer, Boolean isUpVote){
+        Vote vote = new Vote(user,isUpVote);
+        answer.addVote(vote);
+        answer.author.increaseReputation(isUpVote ? 10 : -2);
+    }
+
+    // Only the question's author may accept, and only one of its own answers. Accepting another
+    // answer moves the acceptance (and its reputation) from the previous one.
+    public boolean acceptAnswer(User user, Question question, Answer answer) {
+        if (question.author != user || answer.question != question) {
+            return false;
+        }
+        synchronized (question) {
+            Answer previous = question.acceptedAnswer;
+            if (previous == answer) {
+                return true;
+            }
+            if (previous != null) {
+                previous.accepted = false;
+                previous.author.activity.acceptedAnswers.decrementAndGet();
+                previous.author.increaseReputation(-ACCEPTED_ANSWER_REPUTATION);
+            }
+            answer.accepted = true;
+            question.acceptedAnswer = answer;
+            answer.author.activity.acceptedAnswers.incrementAndGet();
+        }
+        answer.author.increaseReputation(ACCEPTED_ANSWER_REPUTATION);
+        return true;
+    }
+
+    public Question getQuestion(int id) {
+        return questions.get(id);
+    }
+
+    public List<Question> searchQuestions(String keyword) {
+        return searchQuestions(keyword, DEFAULT_SEARCH_LIMIT);
+    }
+
+    // Best BM25 matches for any of the query's words (case-insensitive) in titles, bodies and answers
+    public List<Question> searchQuestions(String query, int limit) {
+        return toQuestions(searchIndex.search(query, limit));
+    }
+
+    // Waits until the background indexer has caught up; searches see new posts before that too
+    public void refreshSearch() {
+        searchIndex.refresh();
+    }
+
+    public void shutdown() {
+        searchIndex.shutdown();
+    }
+
+    // Every question with the tag, newest first
+    public List<Question> getQuestionsByTag(String tagName){
+        return getQuestionsByTag(tagName, Integer.MAX_VALUE);
+    }
+
+    public List<Question> getQuestionsByTag(String tagName, int limit) {
+        TagPostings postings = postingsFor(tagName);
+        return postings == null ? new ArrayList<>() : toQuestions(postings.latest(limit));
+    }
+
+    // Highest score first
+    public List<Question> getTopQuestionsByTag(String tagName, int limit) {
+        TagPostings postings = postingsFor(tagName);
+        return postings == null ? new ArrayList<>() : toQuestions(postings.top(limit));
+    }
+
+    // Questions carrying every tag, newest first. Walks the shortest posting list from its newest
+    // end and binary-searches the others, stopping after limit hits.
+    public List<Question> getQuestionsWithAllTags(List<String> tagNames, int limit) {
+        if (tagNames.isEmpty()) {
+            return new ArrayList<>();
+        }
+        TagPostings[] postings = new TagPostings[tagNames.size()];
+        for (int i = 0; i < postings.length; i++) {
+            postings[i] = postingsFor(tagNames.get(i));
+            if (postings[i] == null) {
+                return new ArrayList<>();
+            }
+        }
+        Arrays.sort(postings, Comparator.comparingInt(TagPostings::size));
+        // Size first, then the array it bounds
+        int[] sizes = new int[postings.length];
+        int[][] lists = new int[postings.length][];
+        for (int l = 0; l < postings.length; l++) {
+            sizes[l] = postings[l].size();
+            lists[l] = postings[l].ids();
+        }
+        int[] hits = new int[Math.max(0, Math.min(limit, sizes[0]))];
+        int count = 0;
+        for (int i = sizes[0] - 1; i >= 0 && count < hits.length; i--) {
+            int id = lists[0][i];
+            boolean everywhere = true;
+            for (int l = 1; l < lists.length && everywhere; l++) {
+                everywhere = Arrays.binarySearch(lists[l], 0, sizes[l], id) >= 0;
+            }
+            if (everywhere) {
+                hits[count++] = id;
+            }
+        }
+        return toQuestions(Arrays.copyOf(hits, count));
+    }
+
+    // Questions carrying any of the tags, newest first: a merge from the newest end of each list
+    public List<Question> getQuestionsWithAnyTag(List<String> tagNames, int limit) {
+        List<int[]> lists = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        for (String tagName : tagNames) {
+            TagPostings postings = postingsFor(tagName);
+            if (postings != null) {
+                sizes.add(postings.size()); // before the array it bounds
+                lists.add(postings.ids());
+            }
+        }
+        int[] positions = new int[lists.size()];
+        for (int l = 0; l < positions.length; l++) {
+            positions[l] = sizes.get(l) - 1;
+        }
+        List<Integer> hits = new ArrayList<>();
+        while (hits.size() < limit) {
+            int newest = -1;
+            for (int l = 0; l < positions.length; l++) {
+                if (positions[l] >= 0) {
+                    newest = Math.max(newest, lists.get(l)[positions[l]]);
+                }
+            }
+            if (newest < 0) {
+                break;
+            }
+            hits.add(newest);
+            for (int l = 0; l < positions.length; l++) {
+                if (positions[l] >= 0 && lists.get(l)[positions[l]] == newest) {
+                    positions[l]--;
+                }
+            }
+        }
+        int[] ids = new int[hits.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hits.get(i);
+        }
+        return toQuestions(ids);
+    }
+
+    private TagPostings postingsFor(String tagName) {
+        Tag tag = tagsByName.get(normalizeTag(tagName));
+        return tag == null ? null : tagPostings.get(tag.id);
+    }
+
+    private List<Question> toQuestions(int[] ids) {
+        List<Question> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(questions.get(id));
+        }
+        return result;
+    }
+
+    // Oldest first
+    public List<Question> getQuestionsByUser(User user) {
+        return user.activity.questions.all();
+    }
+
+    // Newest first, starting just below cursor (ActivityPage.FIRST_PAGE for the latest)
+    public ActivityPage<Question> getQuestionsByUser(User user, int cursor, int limit) {
+        return user.activity.questions.before(cursor, limit);
+    }
+
+    public ActivityPage<Answer> getAnswersByUser(User user, int cursor, int limit) {
+        return user.activity.answers.before(cursor, limit);
+    }
+
+    public ActivityPage<Comment> getCommentsByUser(User user, int cursor, int limit) {
+        return user.activity.comments.before(cursor, limit);
+    }
+
+    // Counts are kept up to date on write; only the first page of each list is read
+    public UserProfile getUserProfile(User user) {
+        UserActivity activity = user.activity;
+        return new UserProfile(user, activity.questions.size(), activity.answers.size(), activity.acceptedAnswers.get(),
+                activity.questions.before(ActivityPage.FIRST_PAGE, DEFAULT_PAGE_SIZE),
+                activity.answers.before(ActivityPage.FIRST_PAGE, DEFAULT_PAGE_SIZE));
+    }
+
+
+}
+
+
+
+public class StackOverflowDemo {
+    public static void main(String[] args) {
+        StackOverflow so = new StackOverflow();
+        User u1 = so.createUser("Alice", "alice@example.com");
+        User u2 = so.createUser("Bob", "bob@example.com");
+        Question q1 = so.postQuestion("What is Java?", "Explain Java basics.", u1, Arrays.asList("java", "programming"));
+        Answer a1 = so.postAnswer("Java is a language.", u2, q1);
+
+        Comment c1 = so.postComment("Thanks for the answer!", u1);
+        so.addCommentToAnswer(c1, a1);
+
+        so.voteQuestion(u2, q1, true);
+        so.voteAnswer(u1, a1, true);
+
+        System.out.println("Alice's reputation: " + u1.reputation);
+        System.out.println("Bob's reputation: " + u2.reputation);
+
+        List<Question> javaQs = so.searchQuestions("Java");
+        System.out.println("Questions found: " + javaQs.size());
+
+        so.postQuestion("Java streams vs loops?", "When are streams slower?", u2, Arrays.asList("Java", "performance"));
+        System.out.println("Tagged java: " + so.getQuestionsByTag("java").size());
+        System.out.println("Top java question: " + so.getTopQuestionsByTag("java", 1).get(0).title);
+        System.out.println("java AND performance: " + so.getQuestionsWithAllTags(Arrays.asList("java", "performance"), 10).size());
+        System.out.println("programming OR performance: " + so.getQuestionsWithAnyTag(Arrays.asList("programming", "performance"), 10).size());
+
+        so.postAnswer("Streams allocate; plain loops are usually faster in hot code.", u1, so.getQuestionsByTag("performance", 1).get(0));
+        so.refreshSearch();
+        System.out.println("Best match for 'loops faster': " + so.searchQuestions("loops faster", 1).get(0).title);
+
+        so.acceptAnswer(u1, q1, a1);
+        UserProfile bob = so.getUserProfile(u2);
+        System.out.println("Bob asked " + bob.questionsAsked + ", answered " + bob.answersGiven
+                + ", accepted " + bob.acceptedAnswers + ", reputation " + bob.reputation);
+        ActivityPage<Question> alicePage = so.getQuestionsByUser(u1, ActivityPage.FIRST_PAGE, 1);
+        System.out.println("Alice's latest question: " + alicePage.items.get(0).title + " (more: " + alicePage.hasMore() + ")");
+        so.shutdown();
+    }
+}
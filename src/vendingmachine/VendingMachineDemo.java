@@ -1,3 +1,5 @@
+package vendingmachine;
+
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 